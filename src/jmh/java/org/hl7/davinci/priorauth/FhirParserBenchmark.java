@@ -0,0 +1,71 @@
+package org.hl7.davinci.priorauth;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.davinci.priorauth.Endpoint.RequestType;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares creating a new pretty printing HAPI parser per call (the previous
+ * behavior of FhirUtils) against the thread confined parsers from
+ * FhirUtils.getParser. Run with ./gradlew jmh, the gc profiler reports the
+ * allocation rate per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FhirParserBenchmark {
+
+  @Param({ "bundle-prior-auth.json", "bundle-items.json", "bundle-request.json" })
+  public String fixture;
+
+  private String json;
+  private IBaseResource resource;
+
+  @Setup
+  public void setup() throws IOException {
+    json = new String(Files.readAllBytes(Paths.get("src/test/resources", fixture)));
+    resource = FhirUtils.getParser(RequestType.JSON).parseResource(json);
+  }
+
+  @Benchmark
+  public IBaseResource parseNewParser() {
+    return App.getFhirContext().newJsonParser().parseResource(json);
+  }
+
+  @Benchmark
+  public IBaseResource parseReusedParser() {
+    return FhirUtils.getParser(RequestType.JSON).parseResource(json);
+  }
+
+  @Benchmark
+  public String encodeNewPrettyParser() {
+    return App.getFhirContext().newJsonParser().setPrettyPrint(true).encodeResourceToString(resource);
+  }
+
+  @Benchmark
+  public String encodeReusedParser() {
+    return FhirUtils.json(resource);
+  }
+
+  @Benchmark
+  public String encodeXmlNewPrettyParser() {
+    return App.getFhirContext().newXmlParser().setPrettyPrint(true).encodeResourceToString(resource);
+  }
+
+  @Benchmark
+  public String encodeXmlReusedParser() {
+    return FhirUtils.xml(resource);
+  }
+}
@@ -0,0 +1,262 @@
+package org.hl7.davinci.priorauth;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.davinci.priorauth.Database.Table;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Claim;
+import org.hl7.fhir.r4.model.Subscription;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Web-socket fan-out load test. Starts the service in this JVM, creates pended
+ * claims with a web-socket Subscription each, connects and binds STOMP clients
+ * to them and then completes every claim at once. Reports the notification
+ * latency percentiles and the heap used per connection.
+ *
+ * Run with ./gradlew loadTest --args="clients=1000 perClient=1 port=9001". The
+ * heap per connection includes the client side of each connection as well so
+ * it is an upper bound for the service. Raise the open file limit (ulimit -n)
+ * above twice the number of clients.
+ */
+public class WebSocketLoadTest {
+
+  private static final String RESOURCES = "src/test/resources";
+  private static final String PATIENT = "loadtest";
+  private static final int MAX_PENDING_CONNECTS = 200;
+  private static final long TIMEOUT_SECONDS = 120;
+
+  private final int clients;
+  private final int perClient;
+  private final String baseUrl;
+
+  private final OkHttpClient http = new OkHttpClient();
+  private final List<StompSession> sessions = new ArrayList<StompSession>();
+  private final Map<String, Long> triggered = new ConcurrentHashMap<String, Long>();
+  private final Map<String, Long> received = new ConcurrentHashMap<String, Long>();
+  private CountDownLatch bound;
+  private CountDownLatch delivered;
+
+  WebSocketLoadTest(int clients, int perClient, int port) {
+    this.clients = clients;
+    this.perClient = perClient;
+    this.baseUrl = "localhost:" + port + "/fhir";
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<String, String>();
+    for (String arg : args) {
+      String[] option = arg.split("=", 2);
+      if (option.length == 2)
+        options.put(option[0], option[1]);
+    }
+    int port = Integer.parseInt(options.getOrDefault("port", "9001"));
+    System.setProperty("server.port", Integer.toString(port));
+    System.setProperty("server.tomcat.max-connections", "100000");
+    App.main(new String[0]);
+
+    WebSocketLoadTest test = new WebSocketLoadTest(Integer.parseInt(options.getOrDefault("clients", "1000")),
+        Integer.parseInt(options.getOrDefault("perClient", "1")), port);
+    try {
+      test.run();
+    } finally {
+      System.exit(0);
+    }
+  }
+
+  void run() throws Exception {
+    List<String> claimIds = seedPendedClaims(clients * perClient);
+    Map<String, String> subscriptionIds = new HashMap<String, String>();
+    for (String claimId : claimIds)
+      subscriptionIds.put(claimId, subscribe(claimId));
+    System.out.println("Created " + claimIds.size() + " pended claims and subscriptions");
+
+    long heapBefore = usedHeap();
+    long start = System.nanoTime();
+    connect(new ArrayList<String>(subscriptionIds.values()));
+    long connectMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    long heapPerConnection = (usedHeap() - heapBefore) / clients;
+    System.out.println("Connected and bound " + clients + " clients in " + connectMillis + "ms ("
+        + WebSocketSessionRegistry.size() + " connected)");
+
+    // Complete every claim at once, each with its own copy of the Bundle
+    delivered = new CountDownLatch(claimIds.size());
+    Bundle bundle = readBundle();
+    List<UpdateClaimTask> tasks = new ArrayList<UpdateClaimTask>();
+    for (String claimId : claimIds)
+      tasks.add(new UpdateClaimTask(bundle.copy(), claimId, PATIENT));
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    start = System.nanoTime();
+    for (UpdateClaimTask task : tasks) {
+      executor.execute(() -> {
+        triggered.put(subscriptionIds.get(task.claimId), System.nanoTime());
+        task.run();
+      });
+    }
+    boolean complete = delivered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    long fanOutMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    executor.shutdown();
+
+    report(complete, fanOutMillis, heapPerConnection);
+    for (StompSession session : sessions)
+      session.disconnect();
+  }
+
+  private List<String> seedPendedClaims(int count) throws IOException {
+    Bundle bundle = readBundle();
+    Claim claim = (Claim) bundle.getEntry().get(0).getResource();
+    String claimResponse = new String(Files.readAllBytes(Paths.get(RESOURCES, "claimresponse-pended.json")));
+    List<String> claimIds = new ArrayList<String>();
+    for (int i = 0; i < count; i++) {
+      String id = "loadtest-" + System.currentTimeMillis() + "-" + i;
+      claim.setId(id);
+      Map<String, Object> claimMap = new HashMap<String, Object>();
+      claimMap.put("id", id);
+      claimMap.put("patient", PATIENT);
+      claimMap.put("status", "active");
+      claimMap.put("resource", claim);
+      App.getDB().write(Table.CLAIM, claimMap);
+
+      Map<String, Object> responseMap = new HashMap<String, Object>();
+      responseMap.put("id", id);
+      responseMap.put("claimId", id);
+      responseMap.put("patient", PATIENT);
+      responseMap.put("status", "active");
+      responseMap.put("outcome", FhirUtils.ReviewAction.PENDED.value());
+      responseMap.put("resource", claimResponse);
+      App.getDB().write(Table.CLAIM_RESPONSE, responseMap);
+      claimIds.add(id);
+    }
+    return claimIds;
+  }
+
+  private String subscribe(String claimId) throws IOException {
+    Subscription subscription = new Subscription();
+    subscription.setCriteria("identifier=" + claimId + "&patient.identifier=" + PATIENT + "&status=active");
+    subscription.getChannel().setType(Subscription.SubscriptionChannelType.WEBSOCKET);
+    Request request = new Request.Builder().url("http://" + baseUrl + "/Subscription")
+        .post(RequestBody.create(MediaType.parse("application/fhir+json"), FhirUtils.json(subscription))).build();
+    try (Response response = http.newCall(request).execute()) {
+      Subscription created = (Subscription) App.getFhirContext().newJsonParser()
+          .parseResource(response.body().string());
+      return FhirUtils.getIdFromResource(created);
+    }
+  }
+
+  private void connect(List<String> subscriptionIds) throws Exception {
+    ThreadPoolTaskScheduler heartbeats = new ThreadPoolTaskScheduler();
+    heartbeats.setPoolSize(2);
+    heartbeats.setDaemon(true);
+    heartbeats.initialize();
+    WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+    stompClient.setMessageConverter(new StringMessageConverter());
+    stompClient.setTaskScheduler(heartbeats);
+
+    bound = new CountDownLatch(subscriptionIds.size());
+    Semaphore pending = new Semaphore(MAX_PENDING_CONNECTS);
+    List<CompletableFuture<StompSession>> connections = new ArrayList<CompletableFuture<StompSession>>();
+    for (int client = 0; client < clients; client++) {
+      List<String> bindIds = subscriptionIds.subList(client * perClient, (client + 1) * perClient);
+      pending.acquire();
+      CompletableFuture<StompSession> connection = stompClient
+          .connect("ws://" + baseUrl + "/connect", new StompSessionHandlerAdapter() {
+          }).completable();
+      connections.add(connection.whenComplete((session, e) -> {
+        pending.release();
+        if (session != null) {
+          session.subscribe("/private/notification", new NotificationHandler());
+          for (String subscriptionId : bindIds)
+            session.send("/subscribe", "bind: " + subscriptionId);
+        }
+      }));
+    }
+    for (CompletableFuture<StompSession> connection : connections)
+      sessions.add(connection.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    if (!bound.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+      System.out.println("Only " + (subscriptionIds.size() - bound.getCount()) + " subscriptions were bound");
+  }
+
+  private class NotificationHandler implements StompFrameHandler {
+    @Override
+    public Type getPayloadType(StompHeaders headers) {
+      return String.class;
+    }
+
+    @Override
+    public void handleFrame(StompHeaders headers, Object payload) {
+      String message = (String) payload;
+      if (message.startsWith("bound: ")) {
+        bound.countDown();
+      } else if (message.startsWith("ping: ")) {
+        long now = System.nanoTime();
+        for (String subscriptionId : message.substring("ping: ".length()).split(",")) {
+          if (received.putIfAbsent(subscriptionId, now) == null)
+            delivered.countDown();
+        }
+      }
+    }
+  }
+
+  private void report(boolean complete, long fanOutMillis, long heapPerConnection) {
+    long[] latencies = received.entrySet().stream().filter(entry -> triggered.containsKey(entry.getKey()))
+        .mapToLong(entry -> TimeUnit.NANOSECONDS.toMillis(entry.getValue() - triggered.get(entry.getKey())))
+        .sorted().toArray();
+    System.out.println("Clients:               " + clients + " x " + perClient + " subscriptions");
+    System.out.println("Delivered:             " + latencies.length + "/" + triggered.size()
+        + (complete ? "" : " (timed out)") + " in " + fanOutMillis + "ms");
+    if (latencies.length > 0) {
+      System.out.println("Latency p50/p90/p99:   " + percentile(latencies, 50) + "/" + percentile(latencies, 90) + "/"
+          + percentile(latencies, 99) + "ms");
+      System.out.println("Latency max:           " + latencies[latencies.length - 1] + "ms");
+    }
+    System.out.println("Heap per connection:   " + heapPerConnection / 1024 + "KB (client and server)");
+  }
+
+  static long percentile(long[] sorted, int percentile) {
+    int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+  }
+
+  private static Bundle readBundle() throws IOException {
+    try (FileInputStream inputStream = new FileInputStream(Paths.get(RESOURCES, "bundle-prior-auth.json").toFile())) {
+      return (Bundle) App.getFhirContext().newJsonParser().parseResource(inputStream);
+    }
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(200);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
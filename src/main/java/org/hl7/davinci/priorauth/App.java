@@ -55,6 +55,16 @@ public class App {
     // Set the DB
     initializeAppDB();
 
+    // Initialize HAPI and the rules before accepting requests so the server only
+    // listens once the first request will be fast
+    Warmup.run();
+
+    // Load the subscriptions, expire the ones past their end and deliver
+    // notifications left in the outbox by a previous run
+    SubscriptionRegistry.load();
+    SubscriptionSweeper.start();
+    NotificationDispatcher.start();
+
     // Assemble the microservice
     SpringApplication server = new SpringApplication(App.class);
     server.run();
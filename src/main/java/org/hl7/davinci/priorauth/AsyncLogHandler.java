@@ -0,0 +1,149 @@
+package org.hl7.davinci.priorauth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Handler which hands records to a background thread through a bounded buffer
+ * so logging never waits on the disk or console. Records are formatted by the
+ * delegate handlers on the background thread; only the parameters are turned
+ * into strings up front since callers may change them after logging. When the
+ * buffer is full new records are dropped (SEVERE records wait briefly for
+ * space) and the number dropped is logged once there is room again.
+ */
+public class AsyncLogHandler extends Handler {
+
+    private static final long SEVERE_OFFER_MILLIS = 100;
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+    private static final int BATCH_SIZE = 256;
+
+    private final Handler[] delegates;
+    private final BlockingQueue<LogRecord> buffer;
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong pending = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    /**
+     * Create a new AsyncLogHandler and start its writer thread
+     * 
+     * @param capacity  - the number of records the buffer holds.
+     * @param delegates - the handlers which format and write the records.
+     */
+    public AsyncLogHandler(int capacity, Handler... delegates) {
+        this.delegates = delegates;
+        this.buffer = new ArrayBlockingQueue<LogRecord>(capacity);
+        this.writer = new Thread(this::drain, "PALogger-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record))
+            return;
+        Object[] parameters = record.getParameters();
+        if (parameters != null) {
+            Object[] snapshot = new Object[parameters.length];
+            for (int i = 0; i < parameters.length; i++)
+                snapshot[i] = String.valueOf(parameters[i]);
+            record.setParameters(snapshot);
+        }
+        pending.incrementAndGet();
+        boolean accepted = buffer.offer(record);
+        if (!accepted && record.getLevel().intValue() >= Level.SEVERE.intValue()) {
+            try {
+                accepted = buffer.offer(record, SEVERE_OFFER_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!accepted) {
+            pending.decrementAndGet();
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Wait until the records buffered so far are written
+     */
+    @Override
+    public void flush() {
+        long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+        while (pending.get() > 0 && writer.isAlive() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Handler delegate : delegates)
+            delegate.flush();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Handler delegate : delegates)
+            delegate.close();
+    }
+
+    /**
+     * Get the number of records dropped because the buffer was full
+     * 
+     * @return the number of dropped records
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void drain() {
+        List<LogRecord> batch = new ArrayList<LogRecord>(BATCH_SIZE);
+        long reportedDrops = 0;
+        while (!closed || !buffer.isEmpty()) {
+            try {
+                LogRecord first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                buffer.drainTo(batch, BATCH_SIZE - 1);
+                long drops = dropped.sum();
+                if (drops > reportedDrops) {
+                    write(new LogRecord(Level.WARNING,
+                            "PALogger::buffer full, dropped " + (drops - reportedDrops) + " records"));
+                    reportedDrops = drops;
+                }
+                for (LogRecord record : batch)
+                    write(record);
+                for (Handler delegate : delegates)
+                    delegate.flush();
+            } catch (InterruptedException e) {
+                // Keep draining until closed
+            } catch (RuntimeException e) {
+                reportError("AsyncLogHandler::drain", e, 0);
+            } finally {
+                pending.addAndGet(-batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(LogRecord record) {
+        for (Handler delegate : delegates)
+            delegate.publish(record);
+    }
+}
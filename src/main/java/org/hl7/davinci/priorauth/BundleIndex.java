@@ -0,0 +1,117 @@
+package org.hl7.davinci.priorauth;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+
+/**
+ * Index of the entries in a Bundle by resource type and id and by fullUrl. The
+ * index is built once and cached on the Bundle so every lookup during a request
+ * is a hash lookup instead of a scan over every entry. The index is rebuilt
+ * when entries are added or removed. Code which changes the id of a resource
+ * in an indexed Bundle (e.g. the Claim is given the shared id) must call
+ * invalidate so the next lookup rebuilds it.
+ */
+public class BundleIndex {
+
+  private static final String USER_DATA_KEY = BundleIndex.class.getName();
+
+  private final Map<String, BundleEntryComponent> byTypeAndId = new HashMap<String, BundleEntryComponent>();
+  private final Map<String, BundleEntryComponent> byFullUrl = new HashMap<String, BundleEntryComponent>();
+  private final int size;
+
+  private BundleIndex(Bundle bundle) {
+    this.size = bundle.getEntry().size();
+    for (BundleEntryComponent entry : bundle.getEntry()) {
+      // Keep the first entry for duplicates to match a linear scan
+      if (entry.hasFullUrl())
+        byFullUrl.putIfAbsent(entry.getFullUrl(), entry);
+      Resource resource = entry.getResource();
+      if (resource != null) {
+        String id = FhirUtils.getIdFromResource(resource);
+        if (id != null)
+          byTypeAndId.putIfAbsent(key(resource.getResourceType(), id), entry);
+      }
+    }
+  }
+
+  /**
+   * Get the index for a Bundle, building it if the Bundle has not been indexed or
+   * entries were added or removed since it was.
+   *
+   * @param bundle - the Bundle to index.
+   * @return the BundleIndex for the Bundle.
+   */
+  public static BundleIndex of(Bundle bundle) {
+    Object cached = bundle.getUserData(USER_DATA_KEY);
+    if (cached instanceof BundleIndex && ((BundleIndex) cached).size == bundle.getEntry().size())
+      return (BundleIndex) cached;
+    BundleIndex index = new BundleIndex(bundle);
+    bundle.setUserData(USER_DATA_KEY, index);
+    return index;
+  }
+
+  /**
+   * Drop the cached index of a Bundle, e.g. after the id of one of its resources
+   * was changed.
+   *
+   * @param bundle - the Bundle whose index is stale.
+   */
+  public static void invalidate(Bundle bundle) {
+    bundle.setUserData(USER_DATA_KEY, null);
+  }
+
+  /**
+   * Find the entry whose resource has the given type and id.
+   *
+   * @param resourceType - the resource type to look for (since ids are not
+   *                     unique)
+   * @param id           - the resource id to match
+   * @return BundleEntryComponent with resource matching type and id or null
+   */
+  public BundleEntryComponent get(ResourceType resourceType, String id) {
+    if (resourceType == null || id == null)
+      return null;
+    return byTypeAndId.get(key(resourceType, id));
+  }
+
+  /**
+   * Find the entry a literal Reference points to. The reference may match the
+   * fullUrl of the entry or be relative or absolute (Type/id or
+   * [base]/Type/id).
+   *
+   * @param reference - the reference to resolve
+   * @return BundleEntryComponent the reference points to or null
+   */
+  public BundleEntryComponent resolve(Reference reference) {
+    if (reference == null || !reference.hasReference())
+      return null;
+    String value = reference.getReference();
+    BundleEntryComponent entry = byFullUrl.get(value);
+    if (entry != null)
+      return entry;
+
+    String[] referenceParts = value.split("/");
+    if (referenceParts.length < 2)
+      return null;
+    ResourceType resourceType = toResourceType(referenceParts[referenceParts.length - 2]);
+    return get(resourceType, referenceParts[referenceParts.length - 1]);
+  }
+
+  private static ResourceType toResourceType(String type) {
+    try {
+      return ResourceType.valueOf(type);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static String key(ResourceType resourceType, String id) {
+    return resourceType.name() + "/" + id;
+  }
+}
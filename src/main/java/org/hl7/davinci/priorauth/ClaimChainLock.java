@@ -0,0 +1,32 @@
+package org.hl7.davinci.priorauth;
+
+import java.util.concurrent.locks.Lock;
+
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Striped locks which serialize mutations to a claim chain (a Claim and every
+ * update which replaces it). All of the Claims in a chain belong to the same
+ * patient so the patient identifier is used as the lock key. Requests for
+ * unrelated patients proceed in parallel.
+ */
+public class ClaimChainLock {
+
+  /**
+   * Number of stripes. Patients which hash to the same stripe share a lock.
+   */
+  private static final int STRIPES = 256;
+
+  private static final Striped<Lock> LOCKS = Striped.lock(STRIPES);
+
+  /**
+   * Get the lock guarding every claim chain for a patient. The lock is
+   * reentrant.
+   *
+   * @param patient - the patient identifier.
+   * @return the lock for the patient's claim chains.
+   */
+  public static Lock forPatient(String patient) {
+    return LOCKS.get(patient);
+  }
+}
@@ -1,16 +1,18 @@
 package org.hl7.davinci.priorauth;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Timer;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.servlet.http.HttpServletRequest;
 
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -25,6 +27,7 @@ import org.springframework.web.bind.annotation.RestController;
 import org.hl7.davinci.priorauth.Database.Table;
 import org.hl7.davinci.priorauth.Endpoint.RequestType;
 import org.hl7.davinci.priorauth.FhirUtils.Disposition;
+import org.hl7.davinci.priorauth.SubmitMetrics.Stage;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Claim;
@@ -37,8 +40,6 @@ import org.hl7.fhir.r4.model.ResourceType;
 import org.hl7.fhir.r4.model.Claim.ClaimStatus;
 import org.hl7.fhir.r4.model.Claim.ItemComponent;
 
-import ca.uhn.fhir.parser.IParser;
-
 /**
  * The Claim endpoint to READ, SEARCH for, and DELETE submitted claims.
  */
@@ -51,8 +52,11 @@ public class ClaimEndpoint {
 
   static final String REQUIRES_BUNDLE = "Prior Authorization Claim/$submit Operation requires a Bundle with a single Claim as the first entry and supporting resources.";
   static final String PROCESS_FAILED = "Unable to process the request properly. Check the log for more details.";
+  static final String TOO_LARGE = "Prior Authorization Claim/$submit Operation request body exceeds the maximum size.";
+  static final String MALFORMED = "Unable to parse the request body.";
+  static final String IDEMPOTENCY_CONFLICT = "The Idempotency-Key was already used for a different request.";
 
-  static final HashMap<String, Timer> pendedTimers = new HashMap<String, Timer>();
+  static final Map<String, Timer> pendedTimers = new ConcurrentHashMap<String, Timer>();
 
   @GetMapping(value = "", produces = { MediaType.APPLICATION_JSON_VALUE, "application/fhir+json" })
   public ResponseEntity<String> readClaimJson(HttpServletRequest request,
@@ -93,68 +97,87 @@ public class ClaimEndpoint {
   }
 
   @PostMapping(value = "/$submit", consumes = { MediaType.APPLICATION_JSON_VALUE, "application/fhir+json" })
-  public ResponseEntity<String> submitOperationJson(HttpServletRequest request, HttpEntity<String> entity) {
-    return submitOperation(entity.getBody(), RequestType.JSON, request);
+  public ResponseEntity<String> submitOperationJson(HttpServletRequest request) {
+    return submitOperation(RequestType.JSON, request);
   }
 
   @PostMapping(value = "/$submit", consumes = { MediaType.APPLICATION_XML_VALUE, "application/fhir+xml" })
-  public ResponseEntity<String> submitOperationXml(HttpServletRequest request, HttpEntity<String> entity) {
-    return submitOperation(entity.getBody(), RequestType.XML, request);
+  public ResponseEntity<String> submitOperationXml(HttpServletRequest request) {
+    return submitOperation(RequestType.XML, request);
   }
 
   /**
-   * The submitOperation function for both json and xml
+   * The submitOperation function for both json and xml. The body is read by the
+   * precheck so an oversized body is rejected before it is read.
    * 
-   * @param body        - the body of the post request.
    * @param requestType - the RequestType of the request.
+   * @param request     - the post request.
    * @return - claimResponse response
    */
-  private ResponseEntity<String> submitOperation(String body, RequestType requestType, HttpServletRequest request) {
-    logger.info("POST /Claim/$submit fhir+" + requestType.name());
+  private ResponseEntity<String> submitOperation(RequestType requestType, HttpServletRequest request) {
+    logger.log(Level.INFO, "POST /Claim/$submit fhir+{0}", requestType.name());
     App.setBaseUrl(Endpoint.getServiceBaseUrl(request));
 
+    Submission submission = new Submission(requestType);
+    boolean pretty = Endpoint.isPretty(request);
     String id = null;
     String patient = null;
     HttpStatus status = HttpStatus.BAD_REQUEST;
     String formattedData = null;
     try {
-      IParser parser = requestType == RequestType.JSON ? App.getFhirContext().newJsonParser()
-          : App.getFhirContext().newXmlParser();
-      IBaseResource resource = parser.parseResource(body);
-      if (resource instanceof Bundle) {
-        Bundle bundle = (Bundle) resource;
-        if (bundle.hasEntry() && (bundle.getEntry().size() >= 1) && bundle.getEntry().get(0).hasResource()
-            && bundle.getEntry().get(0).getResource().getResourceType() == ResourceType.Claim) {
-          Bundle responseBundle = processBundle(bundle);
-          if (responseBundle == null) {
+      if (!SubmitMetrics.time(Stage.PRECHECK, () -> precheck(submission, request))) {
+        // Rejected before parsing...
+        OperationOutcome error;
+        if (submission.precheck == SubmitPrecheck.Result.TOO_LARGE) {
+          error = FhirUtils.buildOutcome(IssueSeverity.ERROR, IssueType.TOOLARGE, TOO_LARGE);
+          status = HttpStatus.PAYLOAD_TOO_LARGE;
+        } else if (submission.precheck == SubmitPrecheck.Result.MALFORMED) {
+          error = FhirUtils.buildOutcome(IssueSeverity.FATAL, IssueType.STRUCTURE, MALFORMED);
+        } else {
+          error = FhirUtils.buildOutcome(IssueSeverity.ERROR, IssueType.INVALID, REQUIRES_BUNDLE);
+        }
+        formattedData = FhirUtils.getFormattedData(error, requestType, pretty);
+        logger.warning("ClaimEndpoint::SubmitOperation:Rejected by precheck:" + submission.precheck);
+      } else {
+        SubmitMetrics.time(Stage.PARSE, () -> parse(submission));
+        if (SubmitMetrics.time(Stage.VALIDATE, () -> validate(submission))) {
+          Bundle responseBundle = processBundle(submission, request.getHeader(IdempotencyCache.IDEMPOTENCY_KEY_HEADER));
+          if (submission.idempotencyConflict) {
+            // Same key, different Bundle...
+            OperationOutcome error = FhirUtils.buildOutcome(IssueSeverity.ERROR, IssueType.CONFLICT,
+                IDEMPOTENCY_CONFLICT);
+            formattedData = FhirUtils.getFormattedData(error, requestType, pretty);
+            status = HttpStatus.UNPROCESSABLE_ENTITY;
+            logger.warning("ClaimEndpoint::SubmitOperation:Idempotency-Key reused for a different Bundle");
+          } else if (responseBundle == null) {
             // Failed processing bundle...
             OperationOutcome error = FhirUtils.buildOutcome(IssueSeverity.ERROR, IssueType.INVALID, PROCESS_FAILED);
-            formattedData = FhirUtils.getFormattedData(error, requestType);
-            logger.severe("ClaimEndpoint::SubmitOperation:Failed to process Bundle:" + bundle.getId());
+            formattedData = FhirUtils.getFormattedData(error, requestType, pretty);
+            logger.severe("ClaimEndpoint::SubmitOperation:Failed to process Bundle:" + submission.bundle.getId());
           } else {
             ClaimResponse response = FhirUtils.getClaimResponseFromResponseBundle(responseBundle);
             id = FhirUtils.getIdFromResource(response);
-            patient = FhirUtils.getPatientIdentifierFromBundle(responseBundle);
-            formattedData = FhirUtils.getFormattedData(responseBundle, requestType);
+            patient = submission.patient;
+            formattedData = FhirUtils.getFormattedData(responseBundle, requestType, pretty);
             status = HttpStatus.CREATED;
           }
+        } else if (submission.claim != null) {
+          // Patient is required...
+          OperationOutcome error = FhirUtils.buildOutcome(IssueSeverity.ERROR, IssueType.INVALID, PROCESS_FAILED);
+          formattedData = FhirUtils.getFormattedData(error, requestType, pretty);
+          logger.severe("ClaimEndpoint::SubmitOperation:Patient was null");
         } else {
-          // Claim is required...
+          // Bundle with a Claim is required...
           OperationOutcome error = FhirUtils.buildOutcome(IssueSeverity.ERROR, IssueType.INVALID, REQUIRES_BUNDLE);
-          formattedData = FhirUtils.getFormattedData(error, requestType);
-          logger.severe("ClaimEndpoint::SubmitOperation:First bundle entry is not a PASClaim");
+          formattedData = FhirUtils.getFormattedData(error, requestType, pretty);
+          logger.severe("ClaimEndpoint::SubmitOperation:Body is not a Bundle with a PASClaim as the first entry");
         }
-      } else {
-        // Bundle is required...
-        OperationOutcome error = FhirUtils.buildOutcome(IssueSeverity.ERROR, IssueType.INVALID, REQUIRES_BUNDLE);
-        formattedData = FhirUtils.getFormattedData(error, requestType);
-        logger.severe("ClaimEndpoint::SubmitOperation:Body is not a Bundle");
       }
     } catch (Exception e) {
       // The submission failed so spectacularly that we need to
       // catch an exception and send back an error message...
       OperationOutcome error = FhirUtils.buildOutcome(IssueSeverity.FATAL, IssueType.STRUCTURE, e.getMessage());
-      formattedData = FhirUtils.getFormattedData(error, requestType);
+      formattedData = FhirUtils.getFormattedData(error, requestType, pretty);
     }
     MediaType contentType = requestType == RequestType.JSON ? MediaType.APPLICATION_JSON : MediaType.APPLICATION_XML;
     return ResponseEntity.status(status).contentType(contentType)
@@ -168,108 +191,287 @@ public class ClaimEndpoint {
    * Process the $submit operation Bundle. Theoretically, this is where business
    * logic should be implemented or overridden.
    * 
-   * @param bundle Bundle with a Claim followed by other required resources.
-   * @return ClaimResponse with the result.
+   * @param submission     the validated submission with a Bundle containing a
+   *                       Claim followed by other required resources.
+   * @param idempotencyKey the Idempotency-Key header of the request or null.
+   * @return ClaimResponse with the result or null if it failed or the
+   *         Idempotency-Key belongs to a different request.
    */
-  private Bundle processBundle(Bundle bundle) {
-    logger.fine("ClaimEndpoint::processBundle:" + bundle.getId());
-
-    // Generate a shared id...
-    String id = UUID.randomUUID().toString();
-
-    // Get the patient
-    Claim claim = FhirUtils.getClaimFromRequestBundle(bundle);
-    String patient = FhirUtils.getPatientIdentifierFromBundle(bundle);
-    if (patient == null) {
-      logger.severe("ClaimEndpoint::processBundle:Patient was null");
-      return null;
-    }
+  private Bundle processBundle(Submission submission, String idempotencyKey) {
+    logger.log(Level.FINE, "ClaimEndpoint::processBundle:{0}", submission.bundle.getId());
 
-    ClaimStatus status = claim.getStatus();
-    Disposition responseDisposition = null;
-    ClaimResponseStatus responseStatus = ClaimResponseStatus.ACTIVE;
+    // Identify the request before processing modifies the bundle
+    String contentHash = IdempotencyCache.getContentHash(submission.bundle);
+    String requestKey = IdempotencyCache.getRequestKey(contentHash, idempotencyKey);
+    String patient = submission.patient;
 
-    if (status == ClaimStatus.CANCELLED) {
-      // Cancel the claim...
-      if (cancelClaim(FhirUtils.getIdFromResource(claim), patient)) {
-        responseStatus = ClaimResponseStatus.CANCELLED;
-        responseDisposition = Disposition.CANCELLED;
-        cancelTimer(FhirUtils.getIdFromResource(claim));
-      } else {
-        logger.severe("ClaimEndpoint::Unable to cancel Claim/" + FhirUtils.getIdFromResource(claim));
+    // Serialize mutations to the patient's claim chains
+    Lock lock = ClaimChainLock.forPatient(patient);
+    lock.lock();
+    try {
+      // A reused key must be for the same Bundle
+      if (IdempotencyCache.isConflict(patient, requestKey, contentHash)) {
+        submission.idempotencyConflict = true;
         return null;
       }
-    } else {
-      // Store the claim...
-      claim.setId(id);
-      Map<String, Object> claimMap = new HashMap<String, Object>();
-      claimMap.put("isDifferential", FhirUtils.isDifferential(bundle));
-      claimMap.put("id", id);
-      claimMap.put("patient", patient);
-      claimMap.put("status", FhirUtils.getStatusFromResource(claim));
-      claimMap.put("resource", claim);
-      String relatedId = FhirUtils.getRelatedComponentId(claim);
-      if (relatedId != null) {
-        // This is an update...
-
-        // Check the related id exists
-        Claim relatedClaim = (Claim) App.getDB().read(Table.CLAIM, Collections.singletonMap("id", relatedId));
-        if (relatedClaim == null) {
-          logger.warning("ClaimEndpoint::Unable to submit update to claim " + relatedId + " because it does not exist");
-          return null;
-        }
 
-        relatedId = App.getDB().getMostRecentId(relatedId);
-        logger.info("ClaimEndpoint::Updated related id to most recent: " + relatedId);
-        claimMap.put("related", relatedId);
-
-        // Check if related is cancelled in the DB
-        if (FhirUtils.isCancelled(Table.CLAIM, relatedId)) {
-          logger.warning(
-              "ClaimEndpoint::Unable to submit update to claim " + relatedId + " because it has been cancelled");
-          return null;
-        }
-
-        // Check if the related is pended in the DB
-        if (FhirUtils.isPended(relatedId)) {
-          logger.warning("ClaimEndpoint::Related claim " + relatedId + " is pending. Cancelling the scheduled update");
-          cancelTimer(relatedId);
+      // Return the previous response if this request is a retry
+      String previousId = IdempotencyCache.getResponseId(patient, requestKey);
+      if (previousId != null) {
+        Map<String, Object> constraintMap = new HashMap<String, Object>();
+        constraintMap.put("id", previousId);
+        constraintMap.put("patient", patient);
+        Bundle previousResponse = (Bundle) App.getDB().read(Table.CLAIM_RESPONSE, constraintMap);
+        if (previousResponse != null) {
+          logger.log(Level.INFO, "ClaimEndpoint::processBundle:Duplicate request. Returning ClaimResponse/{0}",
+              previousId);
+          return previousResponse;
         }
+        IdempotencyCache.invalidate(patient, requestKey);
       }
 
-      if (!App.getDB().write(Table.CLAIM, claimMap))
-        return null;
+      Bundle responseBundle = updateClaimChain(submission);
+      if (responseBundle != null)
+        IdempotencyCache.putResponseId(patient, requestKey, contentHash, FhirUtils.getIdFromResource(responseBundle));
+      return responseBundle;
+    } finally {
+      lock.unlock();
+    }
+  }
 
-      // Store the bundle...
-      bundle.setId(id);
-      Map<String, Object> bundleMap = new HashMap<String, Object>();
-      bundleMap.put("id", id);
-      bundleMap.put("patient", patient);
-      bundleMap.put("resource", bundle);
-      App.getDB().write(Table.BUNDLE, bundleMap);
-
-      // Store the claim items...
-      if (claim.hasItem()) {
-        if (!processClaimItems(bundle, id, relatedId)) {
-          logger.severe("ClaimEndpoint::processBundle:unable to process claim items successfully");
-          return null;
-        }
+  /**
+   * Apply the submitted Claim to its claim chain and generate the ClaimResponse
+   * by running each remaining stage of the submission in order. The caller must
+   * hold the ClaimChainLock for the patient.
+   * 
+   * @param submission - the validated submission.
+   * @return ClaimResponse Bundle with the result or null on failure.
+   */
+  private Bundle updateClaimChain(Submission submission) {
+    if (submission.claim.getStatus() == ClaimStatus.CANCELLED) {
+      // Cancel the claim...
+      if (!SubmitMetrics.time(Stage.PERSIST_REQUEST, () -> cancel(submission)))
+        return null;
+    } else {
+      if (!SubmitMetrics.time(Stage.RESOLVE_RELATED, () -> resolveRelated(submission)))
+        return null;
+      if (!SubmitMetrics.time(Stage.PERSIST_REQUEST, () -> persistRequest(submission)))
+        return null;
+      if (!SubmitMetrics.time(Stage.ADJUDICATE_ITEMS, () -> adjudicateItems(submission))) {
+        logger.severe("ClaimEndpoint::processBundle:unable to process claim items successfully");
+        return null;
       }
-
-      responseDisposition = ClaimResponseFactory.determineDisposition(bundle);
+      if (!SubmitMetrics.time(Stage.AGGREGATE, () -> aggregate(submission)))
+        return null;
     }
 
     // Generate the claim response...
-    Bundle responseBundle = ClaimResponseFactory.generateAndStoreClaimResponse(bundle, claim, id, responseDisposition,
-        responseStatus, patient);
+    if (!SubmitMetrics.time(Stage.BUILD_RESPONSE, () -> buildResponse(submission)))
+      return null;
+    if (!SubmitMetrics.time(Stage.PERSIST_RESPONSE, () -> persistResponse(submission)))
+      return null;
 
     // Schedule update to Pended Claim
-    if (responseDisposition == Disposition.PENDING) {
-      schedulePendedClaimUpdate(bundle, id, patient);
+    if (submission.disposition == Disposition.PENDING) {
+      schedulePendedClaimUpdate(submission.bundle, submission.id, submission.patient);
     }
 
     // Respond...
-    return responseBundle;
+    return submission.responseBundle;
+  }
+
+  /**
+   * Precheck stage. Read the body of the request, rejecting it if it is too
+   * large, and reject bodies which are obviously not a Bundle with a Claim as the
+   * first entry without parsing them.
+   * 
+   * @param submission - the submission.
+   * @param request    - the post request.
+   * @return true if the body should be parsed, false otherwise.
+   */
+  private boolean precheck(Submission submission, HttpServletRequest request) {
+    try {
+      submission.body = SubmitPrecheck.readBody(request);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "ClaimEndpoint::precheck:Unable to read the request body", e);
+      submission.precheck = SubmitPrecheck.Result.MALFORMED;
+      return false;
+    }
+    if (submission.body == null)
+      submission.precheck = SubmitPrecheck.Result.TOO_LARGE;
+    else
+      submission.precheck = SubmitPrecheck.check(submission.body, submission.requestType);
+    return submission.precheck == SubmitPrecheck.Result.OK;
+  }
+
+  /**
+   * Parse stage. Parse the body of the request into a resource and index the
+   * entries of a Bundle for the later stages.
+   * 
+   * @param submission - the submission.
+   * @return true. Invalid bodies throw.
+   */
+  private boolean parse(Submission submission) {
+    submission.resource = FhirUtils.getParser(submission.requestType).parseResource(submission.body);
+    if (submission.resource instanceof Bundle)
+      BundleIndex.of((Bundle) submission.resource);
+    return true;
+  }
+
+  /**
+   * Validate stage. The resource must be a Bundle with a Claim as the first
+   * entry and a patient identifier.
+   * 
+   * @param submission - the parsed submission.
+   * @return true if the submission is valid, false otherwise.
+   */
+  private boolean validate(Submission submission) {
+    if (!(submission.resource instanceof Bundle))
+      return false;
+    Bundle bundle = (Bundle) submission.resource;
+    if (!bundle.hasEntry() || !bundle.getEntry().get(0).hasResource()
+        || bundle.getEntry().get(0).getResource().getResourceType() != ResourceType.Claim)
+      return false;
+    submission.bundle = bundle;
+    submission.claim = FhirUtils.getClaimFromRequestBundle(bundle);
+    submission.patient = FhirUtils.getPatientIdentifierFromBundle(bundle);
+    return submission.patient != null;
+  }
+
+  /**
+   * Persist request stage for a cancel. Cancel the claim chain.
+   * 
+   * @param submission - the submission.
+   * @return true if the claim was cancelled, false otherwise.
+   */
+  private boolean cancel(Submission submission) {
+    String claimId = FhirUtils.getIdFromResource(submission.claim);
+    if (!cancelClaim(claimId, submission.patient)) {
+      logger.severe("ClaimEndpoint::Unable to cancel Claim/" + claimId);
+      return false;
+    }
+    submission.responseStatus = ClaimResponseStatus.CANCELLED;
+    submission.disposition = Disposition.CANCELLED;
+    cancelTimer(claimId);
+    return true;
+  }
+
+  /**
+   * Resolve related stage. For an update find the most recent claim in the chain
+   * and make sure it can be updated.
+   * 
+   * @param submission - the submission.
+   * @return true if the submission is new or can update its chain, false
+   *         otherwise.
+   */
+  private boolean resolveRelated(Submission submission) {
+    String relatedId = FhirUtils.getRelatedComponentId(submission.claim);
+    if (relatedId == null)
+      return true;
+
+    // This is an update...
+
+    // Check the related id exists
+    Claim relatedClaim = (Claim) App.getDB().read(Table.CLAIM, Collections.singletonMap("id", relatedId));
+    if (relatedClaim == null) {
+      logger.warning("ClaimEndpoint::Unable to submit update to claim " + relatedId + " because it does not exist");
+      return false;
+    }
+
+    relatedId = App.getDB().getMostRecentId(relatedId);
+    logger.log(Level.INFO, "ClaimEndpoint::Updated related id to most recent: {0}", relatedId);
+
+    // Check if related is cancelled in the DB
+    if (FhirUtils.isCancelled(Table.CLAIM, relatedId)) {
+      logger.warning("ClaimEndpoint::Unable to submit update to claim " + relatedId + " because it has been cancelled");
+      return false;
+    }
+
+    // Check if the related is pended in the DB
+    if (FhirUtils.isPended(relatedId)) {
+      logger.warning("ClaimEndpoint::Related claim " + relatedId + " is pending. Cancelling the scheduled update");
+      cancelTimer(relatedId);
+    }
+
+    submission.relatedId = relatedId;
+    return true;
+  }
+
+  /**
+   * Persist request stage. Store the claim and the bundle.
+   * 
+   * @param submission - the submission.
+   * @return true if the claim was stored, false otherwise.
+   */
+  private boolean persistRequest(Submission submission) {
+    // Store the claim...
+    submission.claim.setId(submission.id);
+    BundleIndex.invalidate(submission.bundle);
+    Map<String, Object> claimMap = new HashMap<String, Object>();
+    claimMap.put("isDifferential", FhirUtils.isDifferential(submission.bundle));
+    claimMap.put("id", submission.id);
+    claimMap.put("patient", submission.patient);
+    claimMap.put("status", FhirUtils.getStatusFromResource(submission.claim));
+    claimMap.put("resource", submission.claim);
+    if (submission.relatedId != null)
+      claimMap.put("related", submission.relatedId);
+    if (!App.getDB().write(Table.CLAIM, claimMap))
+      return false;
+
+    // Store the bundle...
+    submission.bundle.setId(submission.id);
+    Map<String, Object> bundleMap = new HashMap<String, Object>();
+    bundleMap.put("id", submission.id);
+    bundleMap.put("patient", submission.patient);
+    bundleMap.put("resource", submission.bundle);
+    App.getDB().write(Table.BUNDLE, bundleMap);
+    return true;
+  }
+
+  /**
+   * Adjudicate items stage. Store and adjudicate the claim items.
+   * 
+   * @param submission - the submission.
+   * @return true if every item was processed, false otherwise.
+   */
+  private boolean adjudicateItems(Submission submission) {
+    if (!submission.claim.hasItem())
+      return true;
+    return processClaimItems(submission.bundle, submission.id, submission.relatedId);
+  }
+
+  /**
+   * Aggregate stage. Determine the disposition of the claim from its items.
+   * 
+   * @param submission - the submission.
+   * @return true.
+   */
+  private boolean aggregate(Submission submission) {
+    submission.disposition = ClaimResponseFactory.determineDisposition(submission.bundle);
+    return true;
+  }
+
+  /**
+   * Build response stage. Generate the ClaimResponse Bundle.
+   * 
+   * @param submission - the submission.
+   * @return true if the response was generated, false otherwise.
+   */
+  private boolean buildResponse(Submission submission) {
+    submission.responseBundle = ClaimResponseFactory.generateClaimResponse(submission.bundle, submission.claim,
+        submission.id, submission.disposition, submission.responseStatus, submission.patient);
+    return submission.responseBundle != null;
+  }
+
+  /**
+   * Persist response stage. Store the ClaimResponse Bundle.
+   * 
+   * @param submission - the submission.
+   * @return true if the response was stored, false otherwise.
+   */
+  private boolean persistResponse(Submission submission) {
+    return ClaimResponseFactory.storeClaimResponse(submission.responseBundle, submission.claim,
+        submission.disposition, submission.patient);
   }
 
   /**
@@ -286,7 +488,9 @@ public class ClaimEndpoint {
     Claim claim = FhirUtils.getClaimFromRequestBundle(bundle);
     String claimStatusStr = FhirUtils.getStatusFromResource(claim);
 
-    // Start all of the threads
+    // Start all of the threads. The threads run while the caller holds the
+    // ClaimChainLock for the patient so their updates to the related items are
+    // not interleaved with other updates to the chain
     Map<Integer, ProcessClaimItemTask> threads = new HashMap<Integer, ProcessClaimItemTask>();
     for (ItemComponent item : claim.getItem()) {
       ProcessClaimItemTask itemTask = new ProcessClaimItemTask(bundle, item, id, relatedId, claimStatusStr);
@@ -300,8 +504,8 @@ public class ClaimEndpoint {
         itemTask.getThread().join();
         if (itemTask.getStatus() != 0)
           ret = false;
-        logger.fine("ClaimEndpoint::processClaimItems:finsihed processing " + itemTask.getItemName() + ":"
-            + itemTask.getStatus());
+        logger.log(Level.FINE, "ClaimEndpoint::processClaimItems:finsihed processing {0}:{1}",
+            new Object[] { itemTask.getItemName(), itemTask.getStatus() });
       } catch (InterruptedException e) {
         ret = false;
         logger.log(Level.SEVERE, "ClaimEndpoint::processClaimItems:Thread Interrutped:" + itemTask.getItemName(), e);
@@ -441,4 +645,27 @@ public class ClaimEndpoint {
     return false;
   }
 
+  /**
+   * The state of a single $submit request as it moves through the stages.
+   */
+  private static class Submission {
+    String body;
+    final RequestType requestType;
+    final String id = UUID.randomUUID().toString();
+    SubmitPrecheck.Result precheck;
+    IBaseResource resource;
+    Bundle bundle;
+    Claim claim;
+    String patient;
+    String relatedId;
+    Disposition disposition;
+    ClaimResponseStatus responseStatus = ClaimResponseStatus.ACTIVE;
+    Bundle responseBundle;
+    boolean idempotencyConflict;
+
+    Submission(RequestType requestType) {
+      this.requestType = requestType;
+    }
+  }
+
 }
@@ -43,6 +43,17 @@ public class ClaimResponseEndpoint {
 
   public ResponseEntity<String> readClaimResponse(String id, String patient, String status, HttpServletRequest request,
       RequestType requestType) {
+    // Any new or updated ClaimResponse for the patient (including a newer
+    // response in the claim chain) changes the version so an unchanged poll is
+    // answered from a single indexed lookup
+    Map<String, Object> versionConstraintMap = new HashMap<String, Object>();
+    versionConstraintMap.put("patient", patient);
+    if (status != null)
+      versionConstraintMap.put("status", status);
+    String etag = Endpoint.getEtag(Table.CLAIM_RESPONSE, versionConstraintMap, request, requestType);
+    if (Endpoint.etagMatches(request, etag))
+      return Endpoint.notModified(etag);
+
     Map<String, Object> constraintMap = new HashMap<String, Object>();
 
     // get the claim id from the claim response id
@@ -66,7 +77,7 @@ public class ClaimResponseEndpoint {
     constraintMap.put("patient", patient);
     if (status != null)
       constraintMap.put("status", status);
-    return Endpoint.read(Table.CLAIM_RESPONSE, constraintMap, request, requestType);
+    return Endpoint.read(Table.CLAIM_RESPONSE, constraintMap, versionConstraintMap, request, requestType);
   }
 
   @DeleteMapping(value = "", produces = { MediaType.APPLICATION_JSON_VALUE, "application/fhir+json" })
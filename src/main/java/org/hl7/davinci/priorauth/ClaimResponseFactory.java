@@ -1,10 +1,14 @@
 package org.hl7.davinci.priorauth;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.hl7.davinci.priorauth.Database.Table;
@@ -30,6 +34,37 @@ public class ClaimResponseFactory {
 
     static final Logger logger = PALogger.getLogger();
 
+    /**
+     * Which entries of the request Bundle are copied into the ClaimResponse
+     * Bundle. FULL copies every entry, REFERENCED only the entries referenced by
+     * the ClaimResponse (patient, insurer and requestor) and MINIMAL none, leaving
+     * only the references. The stored copy is never larger than REFERENCED since
+     * the submitted Bundle is already stored.
+     */
+    public enum ResponseBundleMode {
+        FULL("full"), REFERENCED("referenced"), MINIMAL("minimal");
+
+        private final String value;
+
+        ResponseBundleMode(String value) {
+            this.value = value;
+        }
+
+        public String value() {
+            return this.value;
+        }
+
+        public static ResponseBundleMode fromString(String value) {
+            for (ResponseBundleMode mode : ResponseBundleMode.values()) {
+                if (mode.value().equalsIgnoreCase(value))
+                    return mode;
+            }
+            return null;
+        }
+    }
+
+    private static final ResponseBundleMode RESPONSE_BUNDLE_MODE = getConfiguredMode();
+
     /**
      * Generate a new ClaimResponse and store it in the database.
      *
@@ -48,12 +83,63 @@ public class ClaimResponseFactory {
      */
     public static Bundle generateAndStoreClaimResponse(Bundle bundle, Claim claim, String id,
             Disposition responseDisposition, ClaimResponseStatus responseStatus, String patient) {
-        logger.info("ClaimResponseFactory::generateAndStoreClaimResponse(" + id + "/" + patient + ", disposition: "
-                + responseDisposition + ", status: " + responseStatus + ")");
+        return generateAndStoreClaimResponse(bundle, claim, id, responseDisposition, responseStatus, patient,
+                Collections.emptyList());
+    }
+
+    /**
+     * Generate a new ClaimResponse and store it in the database together with a
+     * notification for each subscription.
+     *
+     * @param bundle              The original bundle submitted to the server
+     *                            requesting priorauthorization.
+     * @param claim               The claim which this ClaimResponse is in reference
+     *                            to.
+     * @param id                  The new identifier for this ClaimResponse.
+     * @param responseDisposition The new disposition for this ClaimResponse
+     *                            (Granted, Pending, Cancelled, Declined ...).
+     * @param responseStatus      The new status for this ClaimResponse (Active,
+     *                            Cancelled, ...).
+     * @param patient             The identifier for the patient this ClaimResponse
+     *                            is referring to.
+     * @param subscriptionIds     The subscriptions to notify of the new
+     *                            ClaimResponse.
+     * @return ClaimResponse that has been generated and stored in the Database or
+     *         null if it could not be stored.
+     */
+    public static Bundle generateAndStoreClaimResponse(Bundle bundle, Claim claim, String id,
+            Disposition responseDisposition, ClaimResponseStatus responseStatus, String patient,
+            List<String> subscriptionIds) {
+        Bundle responseBundle = generateClaimResponse(bundle, claim, id, responseDisposition, responseStatus, patient);
+        if (!storeClaimResponse(responseBundle, claim, responseDisposition, patient, subscriptionIds))
+            return null;
+        return responseBundle;
+    }
+
+    /**
+     * Generate a new ClaimResponse Bundle without storing it.
+     *
+     * @param bundle              The original bundle submitted to the server
+     *                            requesting priorauthorization.
+     * @param claim               The claim which this ClaimResponse is in reference
+     *                            to.
+     * @param id                  The new identifier for this ClaimResponse.
+     * @param responseDisposition The new disposition for this ClaimResponse
+     *                            (Granted, Pending, Cancelled, Declined ...).
+     * @param responseStatus      The new status for this ClaimResponse (Active,
+     *                            Cancelled, ...).
+     * @param patient             The identifier for the patient this ClaimResponse
+     *                            is referring to.
+     * @return ClaimResponse Bundle with the ClaimResponse as the first entry.
+     */
+    public static Bundle generateClaimResponse(Bundle bundle, Claim claim, String id,
+            Disposition responseDisposition, ClaimResponseStatus responseStatus, String patient) {
+        logger.log(Level.INFO,
+                "ClaimResponseFactory::generateClaimResponse id={0} patient={1} disposition={2} status={3}",
+                new Object[] { id, patient, responseDisposition, responseStatus });
 
         // Generate the claim response...
         ClaimResponse response = new ClaimResponse();
-        String claimId = App.getDB().getMostRecentId(FhirUtils.getIdFromResource(claim));
         response.setStatus(responseStatus);
         response.setType(claim.getType());
         response.setUse(Use.PREAUTHORIZATION);
@@ -64,6 +150,8 @@ public class ClaimResponseFactory {
         } else {
             response.setInsurer(new Reference().setDisplay("Unknown"));
         }
+        if (claim.hasProvider())
+            response.setRequestor(claim.getProvider());
         response.setRequest(new Reference(App.getBaseUrl() + "Claim?identifier=" + FhirUtils.getIdFromResource(claim)
                 + "&patient.identifier=" + patient));
         if (responseDisposition == Disposition.PENDING) {
@@ -91,39 +179,122 @@ public class ClaimResponseFactory {
             response.addExtension(FhirUtils.REVIEW_ACTION_REASON_EXTENSION_URL, new StringType("X"));
         }
 
-        // Create the responseBundle
-        Bundle responseBundle = new Bundle();
-        responseBundle.setId(id);
-        responseBundle.setType(Bundle.BundleType.COLLECTION);
-        BundleEntryComponent responseEntry = responseBundle.addEntry();
-        responseEntry.setResource(response);
-        responseEntry.setFullUrl(App.getBaseUrl() + "/ClaimResponse/" + id);
         if (FhirUtils.isDifferential(bundle)) {
-            logger.info("ClaimResponseFactory::Adding subsetted tag");
+            logger.fine("ClaimResponseFactory::Adding subsetted tag");
             Meta meta = new Meta();
             meta.addSecurity(FhirUtils.SECURITY_SYSTEM_URL, FhirUtils.SECURITY_SUBSETTED, FhirUtils.SECURITY_SUBSETTED);
             // responseBundle.setMeta(meta); // This causes an error for some reason
         }
 
-        // TODO: update this to only add entries referenced in the ClaimResponse
-        // resource
-        for (BundleEntryComponent entry : bundle.getEntry()) {
-            responseBundle.addEntry(entry);
-        }
+        return createResponseBundle(response, bundle, RESPONSE_BUNDLE_MODE);
+    }
+
+    /**
+     * Store a generated ClaimResponse Bundle in the database.
+     *
+     * @param responseBundle      The Bundle from generateClaimResponse.
+     * @param claim               The claim which this ClaimResponse is in reference
+     *                            to.
+     * @param responseDisposition The disposition of the ClaimResponse.
+     * @param patient             The identifier for the patient this ClaimResponse
+     *                            is referring to.
+     * @return true if the ClaimResponse was stored, false otherwise.
+     */
+    public static boolean storeClaimResponse(Bundle responseBundle, Claim claim, Disposition responseDisposition,
+            String patient) {
+        return storeClaimResponse(responseBundle, claim, responseDisposition, patient, Collections.emptyList());
+    }
 
-        // Store the claim response...
+    /**
+     * Store a generated ClaimResponse Bundle in the database together with a
+     * notification in the Outbox for each subscription. Both are written in one
+     * transaction so a notification is never lost or sent for a ClaimResponse
+     * which was not stored.
+     *
+     * @param responseBundle      The Bundle from generateClaimResponse.
+     * @param claim               The claim which this ClaimResponse is in reference
+     *                            to.
+     * @param responseDisposition The disposition of the ClaimResponse.
+     * @param patient             The identifier for the patient this ClaimResponse
+     *                            is referring to.
+     * @param subscriptionIds     The subscriptions to notify of the new
+     *                            ClaimResponse.
+     * @return true if the ClaimResponse was stored, false otherwise.
+     */
+    public static boolean storeClaimResponse(Bundle responseBundle, Claim claim, Disposition responseDisposition,
+            String patient, List<String> subscriptionIds) {
+        ClaimResponse response = FhirUtils.getClaimResponseFromResponseBundle(responseBundle);
+        String claimId = App.getDB().getMostRecentId(FhirUtils.getIdFromResource(claim));
+
+        // The full request is already in the Bundle table so only store what the
+        // ClaimResponse references
+        Bundle storedBundle = responseBundle;
+        if (RESPONSE_BUNDLE_MODE == ResponseBundleMode.FULL)
+            storedBundle = createResponseBundle(response, responseBundle, ResponseBundleMode.REFERENCED);
+
+        String responseId = FhirUtils.getIdFromResource(response);
         Map<String, Object> responseMap = new HashMap<String, Object>();
-        responseMap.put("id", id);
+        responseMap.put("id", responseId);
         responseMap.put("claimId", claimId);
         responseMap.put("patient", patient);
         responseMap.put("status", FhirUtils.getStatusFromResource(response));
         responseMap.put("outcome", FhirUtils.dispositionToReviewAction(responseDisposition).value());
-        responseMap.put("resource", responseBundle);
-        App.getDB().write(Table.CLAIM_RESPONSE, responseMap);
+        responseMap.put("resource", storedBundle);
+        if (subscriptionIds.isEmpty())
+            return App.getDB().write(Table.CLAIM_RESPONSE, responseMap);
+
+        List<Map.Entry<Table, Map<String, Object>>> rows = new ArrayList<Map.Entry<Table, Map<String, Object>>>();
+        rows.add(new AbstractMap.SimpleEntry<Table, Map<String, Object>>(Table.CLAIM_RESPONSE, responseMap));
+        for (String subscriptionId : subscriptionIds)
+            rows.add(NotificationDispatcher.newNotification(subscriptionId, responseId));
+        return App.getDB().writeAll(rows);
+    }
 
+    /**
+     * Create the ClaimResponse Bundle with the ClaimResponse as the first entry
+     * followed by the entries from source selected by mode.
+     *
+     * @param response - the ClaimResponse.
+     * @param source   - the Bundle containing the referenced resources.
+     * @param mode     - which entries of source to include.
+     * @return the ClaimResponse Bundle.
+     */
+    private static Bundle createResponseBundle(ClaimResponse response, Bundle source, ResponseBundleMode mode) {
+        String id = FhirUtils.getIdFromResource(response);
+        Bundle responseBundle = new Bundle();
+        responseBundle.setId(id);
+        responseBundle.setType(Bundle.BundleType.COLLECTION);
+        BundleEntryComponent responseEntry = responseBundle.addEntry();
+        responseEntry.setResource(response);
+        responseEntry.setFullUrl(App.getBaseUrl() + "/ClaimResponse/" + id);
+
+        if (mode == ResponseBundleMode.FULL) {
+            for (BundleEntryComponent entry : source.getEntry()) {
+                if (entry.getResource() != response)
+                    responseBundle.addEntry(entry);
+            }
+        } else if (mode == ResponseBundleMode.REFERENCED) {
+            for (Reference reference : Arrays.asList(response.getPatient(), response.getInsurer(),
+                    response.getRequestor())) {
+                BundleEntryComponent entry = FhirUtils.getEntryComponentFromReference(source, reference);
+                if (entry != null && !responseBundle.getEntry().contains(entry))
+                    responseBundle.addEntry(entry);
+            }
+        }
         return responseBundle;
     }
 
+    private static ResponseBundleMode getConfiguredMode() {
+        String value = PropertyProvider.getProperty("claim_response_bundle");
+        if (value != null) {
+            ResponseBundleMode mode = ResponseBundleMode.fromString(value.trim());
+            if (mode != null)
+                return mode;
+            logger.warning("ClaimResponseFactory::Invalid claim_response_bundle " + value + ". Using default");
+        }
+        return ResponseBundleMode.REFERENCED;
+    }
+
     /**
      * Determine the Disposition for the Claim
      * 
@@ -163,7 +334,8 @@ public class ClaimResponseFactory {
             else if (atleastOneDenied && !atleastOneGranted)
                 disposition = Disposition.DENIED;
 
-            logger.info("ClaimResponseFactory::determineDisposition:Claim " + claimId + ":" + disposition.value());
+            logger.log(Level.INFO, "ClaimResponseFactory::determineDisposition:Claim {0}:{1}",
+                    new Object[] { claimId, disposition.value() });
             return disposition;
         } else {
             // There were no items on this claim so determine the disposition here
@@ -52,6 +52,29 @@ BEGIN TRANSACTION;
         FOREIGN KEY ("claimResponseId") REFERENCES ClaimResponse("id") 
     );
 
+    CREATE TABLE IF NOT EXISTS Outbox (
+        "id" varchar PRIMARY KEY,
+        "sequence" bigint AUTO_INCREMENT,
+        "subscriptionId" varchar,
+        "status" varchar DEFAULT 'pending',
+        "attempts" int DEFAULT 0,
+        "nextAttempt" datetime DEFAULT CURRENT_TIMESTAMP,
+        "timestamp" datetime DEFAULT CURRENT_TIMESTAMP,
+        FOREIGN KEY ("subscriptionId") REFERENCES Subscription("id") ON DELETE CASCADE
+    );
+
+    -- The ClaimResponse a notification announces
+    ALTER TABLE Outbox ADD COLUMN IF NOT EXISTS "claimResponseId" varchar DEFAULT NULL;
+
+    -- Typed end of the Subscription, the end column holds the text as submitted
+    ALTER TABLE Subscription ADD COLUMN IF NOT EXISTS "endTime" datetime DEFAULT NULL;
+
+    CREATE INDEX IF NOT EXISTS idx_bundle_patient ON Bundle ("patient");
+    CREATE INDEX IF NOT EXISTS idx_claim_patient ON Claim ("patient");
+    CREATE INDEX IF NOT EXISTS idx_claimresponse_patient ON ClaimResponse ("patient");
+    CREATE INDEX IF NOT EXISTS idx_outbox_status ON Outbox ("status", "sequence");
+    CREATE INDEX IF NOT EXISTS idx_subscription_endtime ON Subscription ("endTime");
+
     CREATE TABLE IF NOT EXISTS Rules (
         "system" varchar,
         "code" varchar,
@@ -9,12 +9,14 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.sql.ResultSetMetaData;
 import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.h2.jdbc.JdbcSQLIntegrityConstraintViolationException;
+import org.hl7.davinci.priorauth.Endpoint.RequestType;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.*;
 import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
@@ -29,7 +31,7 @@ public class Database {
 
   public enum Table {
     BUNDLE("Bundle"), CLAIM("Claim"), CLAIM_ITEM("ClaimItem"), CLAIM_RESPONSE("ClaimResponse"),
-    SUBSCRIPTION("Subscription"), RULES("Rules");
+    SUBSCRIPTION("Subscription"), RULES("Rules"), OUTBOX("Outbox");
 
     private final String value;
 
@@ -190,7 +192,8 @@ public class Database {
    * @return Bundle - the search result Bundle.
    */
   public Bundle search(Table table, Map<String, Object> constraintMap) {
-    logger.info("Database::search(" + table.value() + ", " + constraintMap.toString() + ")");
+    logger.log(Level.INFO, "Database::search table={0} constraints={1}",
+        new Object[] { table.value(), constraintMap });
     Bundle results = new Bundle();
     results.setType(BundleType.SEARCHSET);
     results.setTimestamp(new Date());
@@ -200,15 +203,16 @@ public class Database {
       Collection<Map<String, Object>> maps = new HashSet<Map<String, Object>>();
       maps.add(constraintMap);
       PreparedStatement stmt = generateStatement(sql, maps, connection);
-      logger.fine("search query: " + stmt.toString());
+      if (logger.isLoggable(Level.FINEST))
+        logger.finest("Database::search:query " + stmt.toString());
       ResultSet rs = stmt.executeQuery();
       int total = 0;
       while (rs.next()) {
         String id = rs.getString("id");
         String patientOut = rs.getString("patient");
         String json = rs.getString("resource");
-        logger.info("search: " + id + "/" + patientOut);
-        Resource resource = (Resource) App.getFhirContext().newJsonParser().parseResource(json);
+        logger.log(Level.FINE, "Database::search id={0} patient={1}", new Object[] { id, patientOut });
+        Resource resource = (Resource) FhirUtils.getParser(RequestType.JSON).parseResource(json);
         resource.setId(id);
         BundleEntryComponent entry = new BundleEntryComponent();
         entry.setFullUrl(App.getBaseUrl() + "/" + table.value() + "/" + id);
@@ -231,7 +235,8 @@ public class Database {
    * @return IBaseResource - if the resource exists, otherwise null.
    */
   public IBaseResource read(Table table, Map<String, Object> constraintParams) {
-    logger.info("Database::read(" + table.value() + ", " + constraintParams.toString() + ")");
+    logger.log(Level.INFO, "Database::read table={0} constraints={1}",
+        new Object[] { table.value(), constraintParams });
     IBaseResource result = null;
     if (table != null && constraintParams != null) {
       try (Connection connection = getConnection()) {
@@ -240,15 +245,16 @@ public class Database {
         Collection<Map<String, Object>> maps = new HashSet<Map<String, Object>>();
         maps.add(constraintParams);
         PreparedStatement stmt = generateStatement(sql, maps, connection);
-        logger.fine("read query: " + stmt.toString());
+        if (logger.isLoggable(Level.FINEST))
+          logger.finest("Database::read:query " + stmt.toString());
         ResultSet rs = stmt.executeQuery();
 
         if (rs.next()) {
           String id = rs.getString("id");
           String json = rs.getString("resource");
           String patientOut = rs.getString("patient");
-          logger.info("read: " + id + "/" + patientOut);
-          result = (Resource) App.getFhirContext().newJsonParser().parseResource(json);
+          logger.log(Level.FINE, "Database::read id={0} patient={1}", new Object[] { id, patientOut });
+          result = (Resource) FhirUtils.getParser(RequestType.JSON).parseResource(json);
         }
       } catch (SQLException e) {
         logger.log(Level.SEVERE, "Database::runQuery:SQLException", e);
@@ -266,7 +272,8 @@ public class Database {
    *         Empty list if none
    */
   public List<IBaseResource> readAll(Table table, Map<String, Object> constraintParams) {
-    logger.info("Database::readAll(" + table.value() + ", " + constraintParams.toString() + ")");
+    logger.log(Level.INFO, "Database::readAll table={0} constraints={1}",
+        new Object[] { table.value(), constraintParams });
     List<IBaseResource> results = new ArrayList<IBaseResource>();
     if (table != null && constraintParams != null) {
       try (Connection connection = getConnection()) {
@@ -275,15 +282,16 @@ public class Database {
         Collection<Map<String, Object>> maps = new HashSet<Map<String, Object>>();
         maps.add(constraintParams);
         PreparedStatement stmt = generateStatement(sql, maps, connection);
-        logger.fine("read query: " + stmt.toString());
+        if (logger.isLoggable(Level.FINEST))
+          logger.finest("Database::read:query " + stmt.toString());
         ResultSet rs = stmt.executeQuery();
 
         while (rs.next()) {
           String id = rs.getString("id");
           String json = rs.getString("resource");
           String patientOut = rs.getString("patient");
-          logger.info("read: " + id + "/" + patientOut);
-          results.add((Resource) App.getFhirContext().newJsonParser().parseResource(json));
+          logger.log(Level.FINE, "Database::read id={0} patient={1}", new Object[] { id, patientOut });
+          results.add((Resource) FhirUtils.getParser(RequestType.JSON).parseResource(json));
         }
       } catch (SQLException e) {
         logger.log(Level.SEVERE, "Database::runQuery:SQLException", e);
@@ -324,7 +332,8 @@ public class Database {
    * @return the specified column of the database
    */
   public String readString(Table table, Map<String, Object> constraintParams, String column) {
-    logger.info("Database::read(" + table.value() + ", " + constraintParams.toString() + ", " + column + ")");
+    logger.log(Level.INFO, "Database::readString table={0} constraints={1} column={2}",
+        new Object[] { table.value(), constraintParams, column });
     if (table != null && constraintParams != null && column != null) {
       try (Connection connection = getConnection()) {
         // TODO: fix this so it does not insert a string (column) into the SQL
@@ -333,7 +342,8 @@ public class Database {
         Collection<Map<String, Object>> maps = new HashSet<Map<String, Object>>();
         maps.add(constraintParams);
         PreparedStatement stmt = generateStatement(sql, maps, connection);
-        logger.fine("read query: " + stmt.toString());
+        if (logger.isLoggable(Level.FINEST))
+          logger.finest("Database::read:query " + stmt.toString());
         ResultSet rs = stmt.executeQuery();
 
         if (rs.next()) {
@@ -346,6 +356,68 @@ public class Database {
     return null;
   }
 
+  /**
+   * Count the rows matching the constraints without reading the resources.
+   *
+   * @param table            - the Table to count in.
+   * @param constraintParams - the search constraints for the SQL query.
+   * @return the number of matching rows.
+   */
+  public int count(Table table, Map<String, Object> constraintParams) {
+    logger.log(Level.INFO, "Database::count table={0} constraints={1}",
+        new Object[] { table.value(), constraintParams });
+    if (table != null && constraintParams != null) {
+      try (Connection connection = getConnection()) {
+        String sql = "SELECT COUNT(*) FROM " + table.value() + " WHERE "
+            + generateClause(constraintParams, WHERE_CONCAT) + ";";
+        Collection<Map<String, Object>> maps = new HashSet<Map<String, Object>>();
+        maps.add(constraintParams);
+        PreparedStatement stmt = generateStatement(sql, maps, connection);
+        if (logger.isLoggable(Level.FINEST))
+          logger.finest("Database::count:query " + stmt.toString());
+        ResultSet rs = stmt.executeQuery();
+
+        if (rs.next()) {
+          return rs.getInt(1);
+        }
+      } catch (SQLException e) {
+        logger.log(Level.SEVERE, "Database::count:SQLException", e);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Read the version of the rows matching the constraints without reading the
+   * resources. The version changes whenever a matching row is inserted, updated
+   * or deleted.
+   *
+   * @param table            - the Table to read from.
+   * @param constraintParams - the search constraints for the SQL query.
+   * @return the version of the matching rows or null if there are none.
+   */
+  public String readVersion(Table table, Map<String, Object> constraintParams) {
+    logger.log(Level.FINE, "Database::readVersion table={0} constraints={1}",
+        new Object[] { table.value(), constraintParams });
+    if (table != null && constraintParams != null && !constraintParams.isEmpty()) {
+      try (Connection connection = getConnection()) {
+        String sql = "SELECT COUNT(*), MAX(timestamp) FROM " + table.value() + " WHERE "
+            + generateClause(constraintParams, WHERE_CONCAT) + ";";
+        Collection<Map<String, Object>> maps = new HashSet<Map<String, Object>>();
+        maps.add(constraintParams);
+        PreparedStatement stmt = generateStatement(sql, maps, connection);
+        ResultSet rs = stmt.executeQuery();
+
+        if (rs.next() && rs.getLong(1) > 0) {
+          return rs.getLong(1) + "-" + rs.getString(2);
+        }
+      } catch (SQLException e) {
+        logger.log(Level.SEVERE, "Database::readVersion:SQLException", e);
+      }
+    }
+    return null;
+  }
+
   /**
    * Insert a resource into database.
    * 
@@ -354,22 +426,12 @@ public class Database {
    * @return boolean - whether or not the resource was written.
    */
   public boolean write(Table table, Map<String, Object> data) {
-    logger.info("Database::write(" + table.value() + ", " + data.toString() + ")");
+    logger.log(Level.INFO, "Database::write table={0} data={1}",
+        new Object[] { table.value(), PALogger.withoutResource(data) });
     boolean result = false;
     if (data != null) {
       try (Connection connection = getConnection()) {
-        String valueClause = "";
-        for (int i = 0; i < data.values().size() - 1; i++)
-          valueClause += "?,";
-        valueClause += "?";
-
-        String sql = "INSERT INTO " + table.value() + " (" + setColumns(data.keySet()) + ") VALUES (" + valueClause
-            + ");";
-        Collection<Map<String, Object>> maps = new HashSet<Map<String, Object>>();
-        maps.add(data);
-        PreparedStatement stmt = generateStatement(sql, maps, connection);
-        result = stmt.execute();
-        logger.fine(stmt.toString());
+        insert(connection, table, data);
         result = true;
       } catch (JdbcSQLIntegrityConstraintViolationException e) {
         logger.log(Level.SEVERE,
@@ -382,6 +444,50 @@ public class Database {
     return result;
   }
 
+  /**
+   * Insert several rows in a single transaction. Either every row is written or
+   * none are.
+   * 
+   * @param rows - the Table and map of columns (keys) and values for each row, in
+   *             the order they are inserted.
+   * @return boolean - whether or not the rows were written.
+   */
+  public boolean writeAll(List<Map.Entry<Table, Map<String, Object>>> rows) {
+    try (Connection connection = getConnection()) {
+      connection.setAutoCommit(false);
+      try {
+        for (Map.Entry<Table, Map<String, Object>> row : rows) {
+          logger.log(Level.INFO, "Database::writeAll table={0} data={1}",
+              new Object[] { row.getKey().value(), PALogger.withoutResource(row.getValue()) });
+          insert(connection, row.getKey(), row.getValue());
+        }
+        connection.commit();
+        return true;
+      } catch (SQLException e) {
+        connection.rollback();
+        logger.log(Level.SEVERE, "Database::writeAll:SQLException", e);
+      }
+    } catch (SQLException e) {
+      logger.log(Level.SEVERE, "Database::writeAll:SQLException", e);
+    }
+    return false;
+  }
+
+  private void insert(Connection connection, Table table, Map<String, Object> data) throws SQLException {
+    String valueClause = "";
+    for (int i = 0; i < data.values().size() - 1; i++)
+      valueClause += "?,";
+    valueClause += "?";
+
+    String sql = "INSERT INTO " + table.value() + " (" + setColumns(data.keySet()) + ") VALUES (" + valueClause + ");";
+    Collection<Map<String, Object>> maps = new HashSet<Map<String, Object>>();
+    maps.add(data);
+    PreparedStatement stmt = generateStatement(sql, maps, connection);
+    stmt.execute();
+    if (logger.isLoggable(Level.FINEST))
+      logger.finest("Database::query " + stmt.toString());
+  }
+
   /**
    * Update a single column in a row to a new value
    * 
@@ -391,8 +497,8 @@ public class Database {
    * @return boolean - whether or not the update was successful
    */
   public boolean update(Table table, Map<String, Object> constraintParams, Map<String, Object> data) {
-    logger.info("Database::update(" + table.value() + ", WHERE " + constraintParams.toString() + ", SET"
-        + data.toString() + ")");
+    logger.log(Level.INFO, "Database::update table={0} constraints={1} data={2}",
+        new Object[] { table.value(), constraintParams, PALogger.withoutResource(data) });
     boolean result = false;
     if (table != null && constraintParams != null && data != null) {
       try (Connection connection = getConnection()) {
@@ -404,7 +510,8 @@ public class Database {
         PreparedStatement stmt = generateStatement(sql, maps, connection);
         stmt.execute();
         result = stmt.getUpdateCount() > 0 ? true : false;
-        logger.fine(stmt.toString());
+        if (logger.isLoggable(Level.FINEST))
+          logger.finest("Database::query " + stmt.toString());
       } catch (SQLException e) {
         logger.log(Level.SEVERE, "Database::runQuery:SQLException", e);
       }
@@ -412,6 +519,137 @@ public class Database {
     return result;
   }
 
+  /**
+   * Delete a batch of Subscriptions whose end has passed. Their pending
+   * notifications are deleted with them.
+   * 
+   * @param now   - the current time.
+   * @param limit - the maximum number of Subscriptions to delete.
+   * @return the ids of the deleted Subscriptions.
+   */
+  public List<String> deleteExpiredSubscriptions(Date now, int limit) {
+    List<String> ids = new ArrayList<String>();
+    try (Connection connection = getConnection()) {
+      connection.setAutoCommit(false);
+      try {
+        PreparedStatement select = connection.prepareStatement("SELECT id FROM " + Table.SUBSCRIPTION.value()
+            + " WHERE endTime IS NOT NULL AND endTime <= ? ORDER BY endTime LIMIT ?;");
+        select.setTimestamp(1, new Timestamp(now.getTime()));
+        select.setInt(2, limit);
+        ResultSet rs = select.executeQuery();
+        while (rs.next())
+          ids.add(rs.getString("id"));
+
+        if (!ids.isEmpty()) {
+          String valueClause = String.join(",", Collections.nCopies(ids.size(), "?"));
+          PreparedStatement delete = connection
+              .prepareStatement("DELETE FROM " + Table.SUBSCRIPTION.value() + " WHERE id IN (" + valueClause + ");");
+          for (int i = 0; i < ids.size(); i++)
+            delete.setString(i + 1, ids.get(i));
+          delete.execute();
+        }
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        ids.clear();
+        logger.log(Level.SEVERE, "Database::deleteExpiredSubscriptions:SQLException", e);
+      }
+    } catch (SQLException e) {
+      logger.log(Level.SEVERE, "Database::deleteExpiredSubscriptions:SQLException", e);
+    }
+    logger.log(Level.FINE, "Database::deleteExpiredSubscriptions:{0}", ids.size());
+    return ids;
+  }
+
+  /**
+   * Clear the websocketId of every Subscription bound to a web-socket.
+   * 
+   * @param websocketId - the web-socket user.
+   * @return boolean - whether or not the statement succeeded.
+   */
+  public boolean unbindWebsocket(String websocketId) {
+    logger.log(Level.INFO, "Database::unbindWebsocket websocketId={0}", websocketId);
+    try (Connection connection = getConnection()) {
+      PreparedStatement stmt = connection.prepareStatement(
+          "UPDATE " + Table.SUBSCRIPTION.value() + " SET websocketId = NULL WHERE websocketId = ?;");
+      stmt.setString(1, websocketId);
+      stmt.execute();
+      return true;
+    } catch (SQLException e) {
+      logger.log(Level.SEVERE, "Database::unbindWebsocket:SQLException", e);
+    }
+    return false;
+  }
+
+  /**
+   * Read the notifications in the Outbox which are due, only the oldest pending
+   * notification of each subscription, in the order they were written. Later
+   * notifications of a subscription wait for the ones before them, but a
+   * subscription which is backing off does not hold up the others.
+   * 
+   * @param now   - the current time.
+   * @param limit - the maximum number of notifications to read.
+   * @return the id, subscriptionId, claimResponseId, attempts and nextAttempt
+   *         (epoch millis) of each notification.
+   */
+  public List<Map<String, Object>> readDueNotifications(Date now, int limit) {
+    List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+    try (Connection connection = getConnection()) {
+      String outbox = Table.OUTBOX.value();
+      PreparedStatement stmt = connection
+          .prepareStatement("SELECT id, subscriptionId, claimResponseId, attempts, nextAttempt FROM " + outbox
+              + " WHERE status = ? AND nextAttempt <= ? AND sequence IN (SELECT MIN(sequence) FROM " + outbox
+              + " WHERE status = ? GROUP BY subscriptionId) ORDER BY sequence LIMIT ?;");
+      stmt.setString(1, NotificationDispatcher.PENDING);
+      stmt.setTimestamp(2, new Timestamp(now.getTime()));
+      stmt.setString(3, NotificationDispatcher.PENDING);
+      stmt.setInt(4, limit);
+      ResultSet rs = stmt.executeQuery();
+      while (rs.next()) {
+        Map<String, Object> notification = new HashMap<String, Object>();
+        notification.put("id", rs.getString("id"));
+        notification.put("subscriptionId", rs.getString("subscriptionId"));
+        notification.put("claimResponseId", rs.getString("claimResponseId"));
+        notification.put("attempts", rs.getInt("attempts"));
+        notification.put("nextAttempt", rs.getTimestamp("nextAttempt").getTime());
+        results.add(notification);
+      }
+    } catch (SQLException e) {
+      logger.log(Level.SEVERE, "Database::readDueNotifications:SQLException", e);
+    }
+    return results;
+  }
+
+  /**
+   * Read every Subscription with the columns needed to send notifications.
+   * 
+   * @return the id, claimResponseId, patient, websocketId and resource (parsed
+   *         Subscription or null) of each Subscription.
+   */
+  public List<Map<String, Object>> readSubscriptions() {
+    List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+    try (Connection connection = getConnection()) {
+      PreparedStatement stmt = connection.prepareStatement(
+          "SELECT id, claimResponseId, patient, websocketId, endTime, resource FROM " + Table.SUBSCRIPTION.value()
+              + ";");
+      ResultSet rs = stmt.executeQuery();
+      while (rs.next()) {
+        Map<String, Object> subscription = new HashMap<String, Object>();
+        subscription.put("id", rs.getString("id"));
+        subscription.put("claimResponseId", rs.getString("claimResponseId"));
+        subscription.put("patient", rs.getString("patient"));
+        subscription.put("websocketId", rs.getString("websocketId"));
+        subscription.put("endTime", rs.getTimestamp("endTime"));
+        String json = rs.getString("resource");
+        subscription.put("resource", json == null ? null : FhirUtils.getParser(RequestType.JSON).parseResource(json));
+        results.add(subscription);
+      }
+    } catch (SQLException e) {
+      logger.log(Level.SEVERE, "Database::readSubscriptions:SQLException", e);
+    }
+    return results;
+  }
+
   /**
    * Take in a Claim id and get the most recent id if it has been replaced by a
    * more updated request.
@@ -488,7 +726,8 @@ public class Database {
    * @return boolean - whether or not the resource was deleted.
    */
   public boolean delete(Table table, String id, String patient) {
-    logger.info("Database::delete(" + table.value() + ", " + id + ", " + patient + ")");
+    logger.log(Level.INFO, "Database::delete table={0} id={1} patient={2}",
+        new Object[] { table.value(), id, patient });
     boolean result = false;
     if (table != null && id != null) {
       try (Connection connection = getConnection()) {
@@ -513,7 +752,7 @@ public class Database {
    * @return true if the resource was deleted and false otherwise.
    */
   public boolean delete(Table table, String id) {
-    logger.info("Database::delete(" + table.value() + ", " + id + ")");
+    logger.log(Level.INFO, "Database::delete table={0} id={1}", new Object[] { table.value(), id });
     boolean result = false;
     if (table != null && id != null) {
       try (Connection connection = getConnection()) {
@@ -535,7 +774,7 @@ public class Database {
    * @return boolean - whether or not the resources were deleted.
    */
   public boolean delete(Table table) {
-    logger.info("Database::delete(" + table.value() + ")");
+    logger.log(Level.INFO, "Database::delete table={0}", table.value());
     boolean result = false;
     if (table != null) {
       try (Connection connection = getConnection()) {
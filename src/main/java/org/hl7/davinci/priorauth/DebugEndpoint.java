@@ -22,6 +22,7 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.hl7.davinci.priorauth.Database.Table;
+import org.hl7.davinci.priorauth.Endpoint.RequestType;
 import org.hl7.davinci.ruleutils.CqlUtils;
 import org.hl7.davinci.rules.PriorAuthRule;
 import org.hl7.fhir.r4.model.Bundle;
@@ -65,6 +66,11 @@ public class DebugEndpoint {
     return query(Table.RULES);
   }
 
+  @GetMapping("/Outbox")
+  public ResponseEntity<String> getOutbox() {
+    return query(Table.OUTBOX);
+  }
+
   @PostMapping("/PopulateDatabaseTestData")
   public ResponseEntity<String> populateDatabase() {
     if (App.debugMode)
@@ -134,6 +140,7 @@ public class DebugEndpoint {
         }
       }
 
+      PriorAuthRule.clearElmCache();
       return new ResponseEntity<>(HttpStatus.OK);
     } else {
       logger.warning("DebugEndpoint::convert elm disabled");
@@ -182,7 +189,7 @@ public class DebugEndpoint {
     java.nio.file.Path modulesFolder = Paths.get("src/main/resources/DatabaseResources");
     java.nio.file.Path fixture = modulesFolder.resolve(fileName);
     FileInputStream inputStream = new FileInputStream(fixture.toString());
-    return (Bundle) App.getFhirContext().newJsonParser().parseResource(inputStream);
+    return (Bundle) FhirUtils.getParser(RequestType.JSON).parseResource(inputStream);
   }
 
   private static boolean writeClaim(Bundle claimBundle, String related, String timestamp) {
@@ -1,20 +1,33 @@
 package org.hl7.davinci.priorauth;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.servlet.http.HttpServletRequest;
 
+import com.google.common.hash.Hashing;
+
 import org.hl7.davinci.priorauth.Database.Table;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Claim;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
 import org.hl7.fhir.r4.model.OperationOutcome;
 import org.hl7.fhir.r4.model.OperationOutcome.IssueSeverity;
 import org.hl7.fhir.r4.model.OperationOutcome.IssueType;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
+import ca.uhn.fhir.rest.api.SummaryEnum;
+
 public class Endpoint {
 
     static final Logger logger = PALogger.getLogger();
@@ -39,20 +52,59 @@ public class Endpoint {
      */
     public static ResponseEntity<String> read(Table table, Map<String, Object> constraintMap,
             HttpServletRequest request, RequestType requestType) {
-        logger.info("GET /" + table.value() + ":" + constraintMap.toString() + " fhir+" + requestType.name());
+        Map<String, Object> versionConstraintMap = new HashMap<String, Object>(constraintMap);
+        versionConstraintMap.values().removeIf(Objects::isNull);
+        return read(table, constraintMap, versionConstraintMap, request, requestType);
+    }
+
+    /**
+     * Read a resource from an endpoint in either JSON or XML. Responds with 304
+     * Not Modified if the If-None-Match header matches the current ETag.
+     * 
+     * @param table                - the Table to read from.
+     * @param constraintMap        - map of the column names and values for the SQL
+     *                             query.
+     * @param versionConstraintMap - map of the column names and values for the
+     *                             rows which determine the ETag.
+     * @param uri                  - the base URI for the microservice.
+     * @param requestType          - the RequestType of the request.
+     * @return the desired resource if successful and an error message otherwise
+     */
+    public static ResponseEntity<String> read(Table table, Map<String, Object> constraintMap,
+            Map<String, Object> versionConstraintMap, HttpServletRequest request, RequestType requestType) {
+        logger.log(Level.INFO, "GET /{0} constraints={1} fhir+{2}",
+                new Object[] { table.value(), constraintMap, requestType.name() });
         App.setBaseUrl(Endpoint.getServiceBaseUrl(request));
         if (!constraintMap.containsKey("patient")) {
             logger.warning("Endpoint::read:patient null");
             return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
         }
+        String etag = getEtag(table, versionConstraintMap, request, requestType);
+        if (etagMatches(request, etag))
+            return notModified(etag);
+        boolean pretty = isPretty(request);
+        String summaryParam = request.getParameter("_summary");
+        SummaryEnum summary = summaryParam == null ? null : SummaryEnum.fromCode(summaryParam);
+        if (summaryParam != null && summary == null) {
+            logger.warning("Endpoint::read:invalid _summary: " + summaryParam);
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        Set<String> elements = getElements(request);
         String formattedData = null;
         if ((!constraintMap.containsKey("id") || constraintMap.get("id") == null)
                 && (!constraintMap.containsKey("claimId") || constraintMap.get("claimId") == null)) {
             // Search
             constraintMap.remove("id");
             Bundle searchBundle;
-            searchBundle = App.getDB().search(table, constraintMap);
-            formattedData = FhirUtils.getFormattedData(searchBundle, requestType);
+            if (summary == SummaryEnum.COUNT) {
+                // Answered from the indexed columns without reading any resources
+                searchBundle = new Bundle();
+                searchBundle.setType(BundleType.SEARCHSET);
+                searchBundle.setTimestamp(new Date());
+                searchBundle.setTotal(App.getDB().count(table, constraintMap));
+            } else
+                searchBundle = App.getDB().search(table, constraintMap);
+            formattedData = FhirUtils.getFormattedData(searchBundle, requestType, pretty, summary, elements);
         } else {
             // Read
             IBaseResource baseResource;
@@ -64,19 +116,21 @@ public class Endpoint {
             // Convert to correct resourceType
             if (table == Table.BUNDLE) {
                 Bundle bundle = (Bundle) baseResource;
-                formattedData = FhirUtils.getFormattedData(bundle, requestType);
+                formattedData = FhirUtils.getFormattedData(bundle, requestType, pretty, summary, elements);
             } else if (table == Table.CLAIM) {
                 Claim claim = (Claim) baseResource;
-                formattedData = FhirUtils.getFormattedData(claim, requestType);
+                formattedData = FhirUtils.getFormattedData(claim, requestType, pretty, summary, elements);
             } else if (table == Table.CLAIM_RESPONSE) {
                 Bundle bundleResponse = (Bundle) baseResource;
-                formattedData = FhirUtils.getFormattedData(bundleResponse, requestType);
+                formattedData = FhirUtils.getFormattedData(bundleResponse, requestType, pretty, summary, elements);
             } else {
                 logger.warning("Endpoint::read:invalid table: " + table.value());
                 return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
             }
         }
-        return new ResponseEntity<String>(formattedData, HttpStatus.OK);
+        if (etag == null)
+            return new ResponseEntity<String>(formattedData, HttpStatus.OK);
+        return ResponseEntity.ok().eTag(etag).body(formattedData);
     }
 
     /**
@@ -89,7 +143,8 @@ public class Endpoint {
      * @return status of the deleted resource
      */
     public static ResponseEntity<String> delete(String id, String patient, Table table, RequestType requestType) {
-        logger.info("DELETE /" + table.value() + ":" + id + "/" + patient + " fhir+" + requestType.name());
+        logger.log(Level.INFO, "DELETE /{0} id={1} patient={2} fhir+{3}",
+                new Object[] { table.value(), id, patient, requestType.name() });
         HttpStatus status = HttpStatus.OK;
         OperationOutcome outcome = null;
         if (id == null) {
@@ -113,6 +168,123 @@ public class Endpoint {
         return new ResponseEntity<>(formattedData, status);
     }
 
+    /**
+     * Whether the client asked for pretty printed output with _pretty=true
+     * 
+     * @param request - the HttpServletRequest from the controller
+     * @return true if the response should be pretty printed, false otherwise
+     */
+    public static boolean isPretty(HttpServletRequest request) {
+        return "true".equalsIgnoreCase(request.getParameter("_pretty"));
+    }
+
+    /**
+     * Get the element names requested with the FHIR _elements parameter
+     * 
+     * @param request - the HttpServletRequest from the controller
+     * @return the element names or null if the parameter is not present
+     */
+    public static Set<String> getElements(HttpServletRequest request) {
+        String[] elementsParams = request.getParameterValues("_elements");
+        if (elementsParams == null)
+            return null;
+        Set<String> elements = new HashSet<String>();
+        for (String elementsParam : elementsParams) {
+            for (String element : elementsParam.split(",")) {
+                if (!element.trim().isEmpty())
+                    elements.add(element.trim());
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Get the weak ETag for a read. The ETag identifies the request (resource,
+     * search parameters and format) and the version of the rows it depends on, so
+     * it is computed from a single lookup without reading any resources.
+     * 
+     * @param table                - the Table the rows are in.
+     * @param versionConstraintMap - map of the column names and values for the
+     *                             rows which determine the ETag.
+     * @param request              - the HttpServletRequest from the controller
+     * @param requestType          - the RequestType of the request.
+     * @return the ETag or null if no rows match
+     */
+    public static String getEtag(Table table, Map<String, Object> versionConstraintMap, HttpServletRequest request,
+            RequestType requestType) {
+        String version = App.getDB().readVersion(table, versionConstraintMap);
+        if (version == null)
+            return null;
+        String identity = request.getRequestURI() + "?" + request.getQueryString() + "|" + requestType.name() + "|"
+                + version;
+        return "W/\"" + Hashing.sha256().hashString(identity, StandardCharsets.UTF_8).toString().substring(0, 32)
+                + "\"";
+    }
+
+    /**
+     * Create a 304 Not Modified response
+     * 
+     * @param etag - the current ETag
+     * @return the 304 response
+     */
+    public static ResponseEntity<String> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+    }
+
+    /**
+     * Whether the If-None-Match header of the request matches an ETag. Uses the
+     * weak comparison since the header is only honored for GET requests.
+     * 
+     * @param request - the HttpServletRequest from the controller
+     * @param etag    - the current ETag of the resource
+     * @return true if the client already has the current version, false otherwise
+     */
+    public static boolean etagMatches(HttpServletRequest request, String etag) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch == null || etag == null)
+            return false;
+        String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/"))
+                candidate = candidate.substring(2);
+            if (candidate.equals("*") || candidate.equals(opaqueTag))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether the client accepts a gzip encoded response. An encoding listed with
+     * q=0 is not acceptable.
+     * 
+     * @param request - the HttpServletRequest from the controller
+     * @return true if the Accept-Encoding header allows gzip, false otherwise
+     */
+    public static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null)
+            return false;
+        for (String candidate : acceptEncoding.split(",")) {
+            String[] parts = candidate.trim().split(";");
+            String coding = parts[0].trim();
+            if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*"))
+                continue;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim().replace(" ", "");
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Get the base url of the service from the HttpServletRequest
      * 
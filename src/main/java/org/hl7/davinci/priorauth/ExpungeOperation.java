@@ -1,11 +1,10 @@
 package org.hl7.davinci.priorauth;
 
-
-import java.util.*;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Logger;
 
 import org.hl7.davinci.priorauth.Database.Table;
-import org.hl7.fhir.dstu3.model.Subscription;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -37,6 +36,7 @@ public class ExpungeOperation {
         if (App.debugMode) {
             // Cascading delete of everything...
             App.getDB().delete(Table.SUBSCRIPTION);
+            SubscriptionRegistry.clear();
             App.getDB().delete(Table.BUNDLE);
             App.getDB().delete(Table.CLAIM);
             App.getDB().delete(Table.CLAIM_ITEM);
@@ -49,10 +49,9 @@ public class ExpungeOperation {
     }
 
     private ResponseEntity<String> expungeAllowedEntries() {
-        boolean results = false;
-        results = expungeSubscriptions("active");
-        results = expungeSubscriptions("off");
-        results = expungeSubscriptions("error");
+        boolean results = expungeSubscriptions("active");
+        results &= expungeSubscriptions("off");
+        results &= expungeSubscriptions("error");
         if (results)
             return ResponseEntity.ok().body("Expunge success!");
         else
@@ -60,88 +59,18 @@ public class ExpungeOperation {
     }
 
     private boolean expungeSubscriptions(String status) {
-        //if the time of the deletion is after the noted end date of the subscription it should be expunged
-        Map<String, Object> constraintMap = new Map<String, Object>() {
-            @Override
-            public int size() {
-                return 0;
-            }
-
-            @Override
-            public boolean isEmpty() {
-                return false;
-            }
-
-            @Override
-            public boolean containsKey(Object key) {
-                return false;
-            }
-
-            @Override
-            public boolean containsValue(Object value) {
-                return false;
-            }
-
-            @Override
-            public Object get(Object key) {
-                return null;
-            }
-
-            @Override
-            public Object put(String key, Object value) {
-                return null;
-            }
-
-            @Override
-            public Object remove(Object key) {
-                return null;
-            }
-
-            @Override
-            public void putAll(Map<? extends String, ?> m) {
-
-            }
-
-            @Override
-            public void clear() {
-
-            }
-
-            @Override
-            public Set<String> keySet() {
-                return null;
-            }
-
-            @Override
-            public Collection<Object> values() {
-                return null;
-            }
-
-            @Override
-            public Set<Map.Entry<String, Object>> entrySet() {
-                return null;
-            }
-        };
-        constraintMap.put("status", status);
-        Date today = new Date();
-        Subscription sub;
-        List<IBaseResource> subscriptions = App.getDB().readAll(Table.SUBSCRIPTION, constraintMap);
-        if (subscriptions != null) {
-
-            while (subscriptions.iterator().hasNext()) {
-
-                sub = (Subscription) subscriptions.iterator().next();
-                if ((today.after(sub.getEnd())) || (status.equals("error")) || (status.equals("off"))) {
-                    String id = FhirUtils.getIdFromResource(sub);
-                    App.getDB().delete(Table.SUBSCRIPTION, id);
-                }
-
-            }
-
+        // Active subscriptions are only expunged once their end has passed
+        if (status.equals("active")) {
+            SubscriptionSweeper.sweep();
             return true;
         }
-        return false;
+        List<IBaseResource> subscriptions = App.getDB().readAll(Table.SUBSCRIPTION,
+                Collections.singletonMap("status", status));
+        for (IBaseResource subscription : subscriptions) {
+            String id = FhirUtils.getIdFromResource(subscription);
+            App.getDB().delete(Table.SUBSCRIPTION, id);
+            SubscriptionRegistry.remove(id);
+        }
+        return true;
     }
-
-
 }
@@ -1,7 +1,10 @@
 package org.hl7.davinci.priorauth;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -27,6 +30,9 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.SummaryEnum;
+
 public class FhirUtils {
 
   static final Logger logger = PALogger.getLogger();
@@ -41,6 +47,16 @@ public class FhirUtils {
   public static final String SECURITY_SYSTEM_URL = "http://terminology.hl7.org/CodeSystem/v3-ObservationValue";
   public static final String SECURITY_SUBSETTED = "SUBSETTED";
 
+  // Thread confined parsers (see getParser)
+  private static final ThreadLocal<IParser> JSON_PARSER = ThreadLocal
+      .withInitial(() -> App.getFhirContext().newJsonParser());
+  private static final ThreadLocal<IParser> PRETTY_JSON_PARSER = ThreadLocal
+      .withInitial(() -> App.getFhirContext().newJsonParser().setPrettyPrint(true));
+  private static final ThreadLocal<IParser> XML_PARSER = ThreadLocal
+      .withInitial(() -> App.getFhirContext().newXmlParser());
+  private static final ThreadLocal<IParser> PRETTY_XML_PARSER = ThreadLocal
+      .withInitial(() -> App.getFhirContext().newXmlParser().setPrettyPrint(true));
+
   /**
    * Enum for the ClaimResponse Disposition field Values are Granted, Denied,
    * Partial, Pending, Cancelled, and Unknown
@@ -137,16 +153,16 @@ public class FhirUtils {
     if (patientReference.hasReference()) {
       // Get the patient through the reference
       String reference = patientReference.getReference();
-      logger.info("FhirUtils::getPatientIdentifier:patientReference:" + reference);
+      logger.log(Level.FINE, "FhirUtils::getPatientIdentifier:patientReference:{0}", reference);
       String[] referenceParts = reference.split("/");
       String patientId = referenceParts[referenceParts.length - 1];
-      logger.info("FhirUtils::getPatientIdentifier:patientId:" + patientId);
+      logger.log(Level.FINE, "FhirUtils::getPatientIdentifier:patientId:{0}", patientId);
 
       // Get the patient resource with the matching id
       BundleEntryComponent bec = getEntryComponentFromBundle(bundle, ResourceType.Patient, patientId);
       if (bec != null) {
         Patient patient = (Patient) bec.getResource();
-        logger.info("FhirUtils::getPatientIdentifier:foundPatient:" + FhirUtils.getIdFromResource(patient));
+        logger.log(Level.FINE, "FhirUtils::getPatientIdentifier:foundPatient:{0}", FhirUtils.getIdFromResource(patient));
         if (patient.hasIdentifier())
           return patient.getIdentifierFirstRep().getValue();
 
@@ -155,14 +171,16 @@ public class FhirUtils {
         // updated to explain what to do here
         return patientId;
       } else if (isDifferential(bundle)) {
-        // Differential update so the patient will be in original bundle
-        logger.info(
-            "FhirUtils::getPatientIdentifierFromBundle:Traversing update chain for patient:Bundle/" + bundle.getId());
+        // Differential update so the patient will be in original bundle. Every
+        // stored Claim in the chain records the resolved patient so a single
+        // primary key lookup on the related Claim is enough
         String relatedId = getRelatedComponentId(getClaimFromRequestBundle(bundle));
-        logger.fine("FhirUtils::getPatientIdentifierFromBundle:Found related ID:" + relatedId);
+        logger.log(Level.FINE, "FhirUtils::getPatientIdentifierFromBundle:Found related ID:{0}", relatedId);
         if (relatedId != null) {
-          Bundle relatedBundle = (Bundle) App.getDB().read(Table.BUNDLE, Collections.singletonMap("id", relatedId));
-          return getPatientIdentifierFromBundle(relatedBundle);
+          String relatedPatient = App.getDB().readString(Table.CLAIM, Collections.singletonMap("id", relatedId),
+              "patient");
+          if (relatedPatient != null)
+            return relatedPatient;
         }
       }
       logger.severe("FhirUtils::getPatientIdentifierFromBundle:Patient with given id not found in Bundle");
@@ -236,13 +254,19 @@ public class FhirUtils {
    * @return BundleEntryComponent in Bundle with resource matching id
    */
   public static BundleEntryComponent getEntryComponentFromBundle(Bundle bundle, ResourceType resourceType, String id) {
-    for (BundleEntryComponent entry : bundle.getEntry()) {
-      Resource resource = entry.getResource();
-      if (resource.getResourceType() == resourceType && FhirUtils.getIdFromResource(resource).equals(id)) {
-        return entry;
-      }
-    }
-    return null;
+    return BundleIndex.of(bundle).get(resourceType, id);
+  }
+
+  /**
+   * Find the BundleEntryComponent in a Bundle for a literal Reference. The
+   * reference may be relative (Type/id) or match the fullUrl of the entry.
+   * 
+   * @param bundle    - the bundle to search through
+   * @param reference - the reference to resolve
+   * @return BundleEntryComponent in Bundle the reference points to or null
+   */
+  public static BundleEntryComponent getEntryComponentFromReference(Bundle bundle, Reference reference) {
+    return BundleIndex.of(bundle).resolve(reference);
   }
 
   /**
@@ -310,7 +334,7 @@ public class FhirUtils {
    */
   public static Boolean isCancelled(Table table, String id) {
     String status = App.getDB().readStatus(table, Collections.singletonMap("id", id));
-    logger.fine("FhirUtils::isCancelled:" + status);
+    logger.log(Level.FINE, "FhirUtils::isCancelled:{0}", status);
     return status.equals("cancelled");
   }
 
@@ -324,31 +348,77 @@ public class FhirUtils {
     id = App.getDB().getMostRecentId(id);
 
     String outcome = App.getDB().readString(Table.CLAIM_RESPONSE, Collections.singletonMap("claimId", id), "outcome");
-    logger.fine("FhirUtils::isPended:Outcome " + outcome);
+    logger.log(Level.FINE, "FhirUtils::isPended:Outcome {0}", outcome);
 
     return outcome != null ? outcome.equals(ReviewAction.PENDED.value()) : false;
   }
 
   /**
-   * Convert a FHIR resource into JSON.
+   * Get the preconfigured parser for the current thread. HAPI parsers are not
+   * thread safe but are cheap to reuse, so each thread keeps its own. Callers
+   * must not change the configuration of the returned parser.
+   * 
+   * @param requestType - JSON or XML.
+   * @param pretty      - whether the parser pretty prints when encoding.
+   * @return IParser for the current thread.
+   */
+  public static IParser getParser(RequestType requestType, boolean pretty) {
+    if (requestType == RequestType.JSON)
+      return pretty ? PRETTY_JSON_PARSER.get() : JSON_PARSER.get();
+    else
+      return pretty ? PRETTY_XML_PARSER.get() : XML_PARSER.get();
+  }
+
+  /**
+   * Get the compact preconfigured parser for the current thread.
+   * 
+   * @param requestType - JSON or XML.
+   * @return IParser for the current thread.
+   */
+  public static IParser getParser(RequestType requestType) {
+    return getParser(requestType, false);
+  }
+
+  /**
+   * Convert a FHIR resource into compact JSON.
    * 
    * @param resource - the resource to convert to JSON.
    * @return String - the JSON.
    */
   public static String json(IBaseResource resource) {
-    String json = App.getFhirContext().newJsonParser().setPrettyPrint(true).encodeResourceToString(resource);
-    return json;
+    return json(resource, false);
   }
 
   /**
-   * Convert a FHIR resource into XML.
+   * Convert a FHIR resource into JSON.
+   * 
+   * @param resource - the resource to convert to JSON.
+   * @param pretty   - whether to pretty print the JSON.
+   * @return String - the JSON.
+   */
+  public static String json(IBaseResource resource, boolean pretty) {
+    return getParser(RequestType.JSON, pretty).encodeResourceToString(resource);
+  }
+
+  /**
+   * Convert a FHIR resource into compact XML.
    * 
    * @param resource - the resource to convert to XML.
    * @return String - the XML.
    */
   public static String xml(IBaseResource resource) {
-    String xml = App.getFhirContext().newXmlParser().setPrettyPrint(true).encodeResourceToString(resource);
-    return xml;
+    return xml(resource, false);
+  }
+
+  /**
+   * Convert a FHIR resource into XML.
+   * 
+   * @param resource - the resource to convert to XML.
+   * @param pretty   - whether to pretty print the XML.
+   * @return String - the XML.
+   */
+  public static String xml(IBaseResource resource, boolean pretty) {
+    return getParser(RequestType.XML, pretty).encodeResourceToString(resource);
   }
 
   /**
@@ -373,7 +443,60 @@ public class FhirUtils {
    * @return JSON or XML string representation of the resource
    */
   public static String getFormattedData(IBaseResource resource, RequestType requestType) {
-    return requestType == RequestType.JSON ? FhirUtils.json(resource) : FhirUtils.xml(resource);
+    return getFormattedData(resource, requestType, false);
+  }
+
+  /**
+   * Format a resource into JSON or XML string
+   * 
+   * @param resource    - the resource to convert
+   * @param requestType - the type to represent it as
+   * @param pretty      - whether to pretty print the result
+   * @return JSON or XML string representation of the resource
+   */
+  public static String getFormattedData(IBaseResource resource, RequestType requestType, boolean pretty) {
+    return getParser(requestType, pretty).encodeResourceToString(resource);
+  }
+
+  /**
+   * Format a resource into JSON or XML string with only the elements selected by
+   * the FHIR _summary and _elements parameters. For a Bundle the elements apply
+   * to the resources in the entries. The shared parsers must not be
+   * reconfigured so a subset is encoded with a new parser.
+   * 
+   * @param resource    - the resource to convert
+   * @param requestType - the type to represent it as
+   * @param pretty      - whether to pretty print the result
+   * @param summary     - the _summary mode or null
+   * @param elements    - the _elements to include or null
+   * @return JSON or XML string representation of the resource
+   */
+  public static String getFormattedData(IBaseResource resource, RequestType requestType, boolean pretty,
+      SummaryEnum summary, Set<String> elements) {
+    boolean subset = (summary != null && summary != SummaryEnum.FALSE && summary != SummaryEnum.COUNT)
+        || (elements != null && !elements.isEmpty());
+    if (!subset)
+      return getFormattedData(resource, requestType, pretty);
+
+    IParser parser = requestType == RequestType.JSON ? App.getFhirContext().newJsonParser()
+        : App.getFhirContext().newXmlParser();
+    parser.setPrettyPrint(pretty);
+    Set<String> encodeElements = new HashSet<String>();
+    if (summary == SummaryEnum.TRUE)
+      parser.setSummaryMode(true);
+    else if (summary == SummaryEnum.DATA)
+      parser.setSuppressNarratives(true);
+    else if (summary == SummaryEnum.TEXT)
+      encodeElements.addAll(Arrays.asList("*.text", "*.id", "*.meta"));
+    if (elements != null) {
+      for (String element : elements)
+        encodeElements.add("*." + element);
+    }
+    if (!encodeElements.isEmpty()) {
+      parser.setEncodeElements(encodeElements);
+      parser.setEncodeElementsAppliesToChildResourcesOnly(resource instanceof Bundle);
+    }
+    return parser.encodeResourceToString(resource);
   }
 
   /**
@@ -425,9 +548,9 @@ public class FhirUtils {
   private static boolean securityIsSubsetted(Bundle bundle) {
     // Using a loop since bundle.getMeta().getSecurity(SYSTEM, CODE) returns null
     for (Coding coding : bundle.getMeta().getSecurity()) {
-      logger.info("FhirUtils::Security:" + coding.getCode());
+      logger.log(Level.FINE, "FhirUtils::Security:{0}", coding.getCode());
       if (coding.getSystem().equals(SECURITY_SYSTEM_URL) && coding.getCode().equals(SECURITY_SUBSETTED)) {
-        logger.info("FhirUtils::securityIsSubsetted:true");
+        logger.fine("FhirUtils::securityIsSubsetted:true");
         return true;
       }
     }
@@ -0,0 +1,118 @@
+package org.hl7.davinci.priorauth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+
+import org.hl7.fhir.r4.model.Bundle;
+
+/**
+ * Maps $submit requests to the id of the ClaimResponse generated for them so
+ * that retried submissions return the original ClaimResponse instead of being
+ * adjudicated again. A request is identified by the Idempotency-Key header when
+ * the client provides one, otherwise by a hash of the canonical encoding of the
+ * submitted Bundle. The hash is stored with the response so a key reused for a
+ * different Bundle is detected. Entries expire after a configurable TTL.
+ */
+public class IdempotencyCache {
+
+  static final Logger logger = PALogger.getLogger();
+
+  public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+  private static final int DEFAULT_TTL_MINUTES = 60;
+  private static final long MAXIMUM_SIZE = 10000;
+
+  private static final int TTL_MINUTES = PropertyProvider.getIntProperty("idempotency_ttl_minutes",
+      DEFAULT_TTL_MINUTES);
+
+  private static class Entry {
+    private final String responseId;
+    private final String contentHash;
+
+    Entry(String responseId, String contentHash) {
+      this.responseId = responseId;
+      this.contentHash = contentHash;
+    }
+  }
+
+  private static final Cache<String, Entry> RESPONSES = CacheBuilder.newBuilder()
+      .expireAfterWrite(TTL_MINUTES, TimeUnit.MINUTES).maximumSize(MAXIMUM_SIZE).build();
+
+  /**
+   * Compute the hash of the canonical encoding of a submitted Bundle. Must be
+   * called before the Bundle is modified by processing.
+   *
+   * @param bundle - the submitted Bundle.
+   * @return the content hash.
+   */
+  public static String getContentHash(Bundle bundle) {
+    return "sha256:" + Hashing.sha256().hashString(FhirUtils.json(bundle), StandardCharsets.UTF_8).toString();
+  }
+
+  /**
+   * Compute the key identifying a $submit request.
+   *
+   * @param contentHash    - the hash from getContentHash.
+   * @param idempotencyKey - the value of the Idempotency-Key header or null.
+   * @return the request key.
+   */
+  public static String getRequestKey(String contentHash, String idempotencyKey) {
+    if (idempotencyKey != null && !idempotencyKey.isEmpty())
+      return "key:" + idempotencyKey;
+    return contentHash;
+  }
+
+  /**
+   * Get the id of the ClaimResponse previously generated for a request.
+   *
+   * @param patient    - the patient identifier of the request.
+   * @param requestKey - the key from getRequestKey.
+   * @return the ClaimResponse id or null if the request has not been seen
+   *         within the TTL.
+   */
+  public static String getResponseId(String patient, String requestKey) {
+    Entry entry = RESPONSES.getIfPresent(patient + "|" + requestKey);
+    return entry == null ? null : entry.responseId;
+  }
+
+  /**
+   * Whether a request key was already used for a request with different
+   * content, i.e. an Idempotency-Key reused for a different Bundle.
+   *
+   * @param patient     - the patient identifier of the request.
+   * @param requestKey  - the key from getRequestKey.
+   * @param contentHash - the hash from getContentHash.
+   * @return true if the key belongs to a different request.
+   */
+  public static boolean isConflict(String patient, String requestKey, String contentHash) {
+    Entry entry = RESPONSES.getIfPresent(patient + "|" + requestKey);
+    return entry != null && !entry.contentHash.equals(contentHash);
+  }
+
+  /**
+   * Remember the ClaimResponse generated for a request.
+   *
+   * @param patient     - the patient identifier of the request.
+   * @param requestKey  - the key from getRequestKey.
+   * @param contentHash - the hash from getContentHash.
+   * @param responseId  - the id of the generated ClaimResponse.
+   */
+  public static void putResponseId(String patient, String requestKey, String contentHash, String responseId) {
+    RESPONSES.put(patient + "|" + requestKey, new Entry(responseId, contentHash));
+  }
+
+  /**
+   * Forget a request, e.g. when its ClaimResponse no longer exists.
+   *
+   * @param patient    - the patient identifier of the request.
+   * @param requestKey - the key from getRequestKey.
+   */
+  public static void invalidate(String patient, String requestKey) {
+    RESPONSES.invalidate(patient + "|" + requestKey);
+  }
+}
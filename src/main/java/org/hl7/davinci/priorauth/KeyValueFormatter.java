@@ -0,0 +1,57 @@
+package org.hl7.davinci.priorauth;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * Formats log records as a single line of key=value pairs, e.g.
+ * 
+ * <pre>
+ * ts=2020-01-01T00:00:00Z level=INFO thread=12 msg="Database::read table=Claim"
+ * </pre>
+ * 
+ * Stack traces follow on the next lines.
+ */
+public class KeyValueFormatter extends Formatter {
+
+    @Override
+    public String format(LogRecord record) {
+        StringBuilder line = new StringBuilder(128);
+        line.append("ts=").append(Instant.ofEpochMilli(record.getMillis()));
+        line.append(" level=").append(record.getLevel().getName());
+        line.append(" thread=").append(record.getThreadID());
+        line.append(" msg=");
+        appendQuoted(line, formatMessage(record));
+        if (record.getThrown() != null) {
+            Throwable thrown = record.getThrown();
+            line.append(" error=");
+            appendQuoted(line, thrown.getClass().getName() + ": " + thrown.getMessage());
+            line.append(System.lineSeparator());
+            StringWriter stackTrace = new StringWriter();
+            thrown.printStackTrace(new PrintWriter(stackTrace));
+            line.append(stackTrace);
+        } else {
+            line.append(System.lineSeparator());
+        }
+        return line.toString();
+    }
+
+    private static void appendQuoted(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                line.append('\\').append(c);
+            else if (c == '\n')
+                line.append("\\n");
+            else if (c == '\r')
+                line.append("\\r");
+            else
+                line.append(c);
+        }
+        line.append('"');
+    }
+}
@@ -0,0 +1,96 @@
+package org.hl7.davinci.priorauth;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Lock free latency histogram with fixed millisecond buckets. Also counts the
+ * number of failed operations.
+ */
+public class LatencyHistogram {
+
+  /**
+   * Upper bounds (inclusive) of the buckets in milliseconds. A final bucket
+   * holds everything larger.
+   */
+  static final long[] BUCKET_BOUNDS_MS = { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MS.length + 1);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+  /**
+   * Record a single operation.
+   *
+   * @param nanos   - the duration of the operation in nanoseconds.
+   * @param success - whether or not the operation succeeded.
+   */
+  public void record(long nanos, boolean success) {
+    long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+    int bucket = 0;
+    while (bucket < BUCKET_BOUNDS_MS.length && millis > BUCKET_BOUNDS_MS[bucket])
+      bucket++;
+    buckets.incrementAndGet(bucket);
+    count.increment();
+    totalNanos.add(nanos);
+    maxNanos.accumulate(nanos);
+    if (!success)
+      errors.increment();
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  /**
+   * Get the number of operations in each bucket (not cumulative). The last value
+   * is the overflow bucket.
+   *
+   * @return the bucket counts.
+   */
+  public long[] getBucketCounts() {
+    long[] counts = new long[buckets.length()];
+    for (int i = 0; i < counts.length; i++)
+      counts[i] = buckets.get(i);
+    return counts;
+  }
+
+  /**
+   * Summarize the histogram as JSON. Buckets are cumulative, i.e. each holds
+   * the number of operations which took at most "le" milliseconds.
+   *
+   * @return JSON summary of the histogram.
+   */
+  @SuppressWarnings("unchecked")
+  public JSONObject toJson() {
+    JSONObject json = new JSONObject();
+    json.put("count", getCount());
+    json.put("errors", getErrors());
+    json.put("totalMs", TimeUnit.NANOSECONDS.toMillis(totalNanos.sum()));
+    json.put("maxMs", TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+
+    JSONArray bucketArray = new JSONArray();
+    long[] counts = getBucketCounts();
+    long cumulative = 0;
+    for (int i = 0; i < counts.length; i++) {
+      cumulative += counts[i];
+      JSONObject bucket = new JSONObject();
+      bucket.put("le", i < BUCKET_BOUNDS_MS.length ? Long.toString(BUCKET_BOUNDS_MS[i]) : "+Inf");
+      bucket.put("count", cumulative);
+      bucketArray.add(bucket);
+    }
+    json.put("buckets", bucketArray);
+    return json;
+  }
+}
@@ -1,18 +1,36 @@
 package org.hl7.davinci.priorauth;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
+/**
+ * The Log endpoint returns part of the current log file. Only the requested
+ * bytes are read so the log can be paged through regardless of its size.
+ */
 @CrossOrigin
 @RestController
 @RequestMapping("/Log")
@@ -20,15 +38,223 @@ public class LogEndpoint {
 
     static final Logger logger = PALogger.getLogger();
 
+    static final MediaType TEXT_PLAIN_UTF8 = MediaType.parseMediaType("text/plain;charset=UTF-8");
+    static final String LOG_SIZE_HEADER = "X-Log-Size";
+    static final String LOG_OFFSET_HEADER = "X-Log-Offset";
+
+    private static final int DEFAULT_TAIL_LINES = 1000;
+    private static final int DEFAULT_FOLLOW_TAIL_LINES = 100;
+    private static final int MAX_LENGTH = 4 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 8192;
+    private static final long FOLLOW_POLL_MILLIS = 500;
+    private static final long FOLLOW_TIMEOUT_MARGIN_MILLIS = 10000;
+    private static final int DEFAULT_FOLLOW_SECONDS = 60;
+    private static final int MAX_FOLLOW_SECONDS = 540;
+    private static final int DEFAULT_MAX_FOLLOWERS = 8;
+
+    static final int MAX_FOLLOWERS = PropertyProvider.getIntProperty("log_max_followers",
+            DEFAULT_MAX_FOLLOWERS);
+    private static final AtomicInteger FOLLOWERS = new AtomicInteger();
+    // A few threads so one slow client does not hold up the others
+    private static final ScheduledExecutorService FOLLOW_POLLER = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "LogEndpoint-follow");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Get part of the log. With offset the bytes starting at offset are returned,
+     * otherwise the last tail lines. At most 4 MB are returned per request. The
+     * X-Log-Size and X-Log-Offset headers hold the size of the log and the offset
+     * of the first byte returned so the next page can be requested.
+     *
+     * @param offset - the byte offset to start reading from
+     * @param length - the number of bytes to read
+     * @param tail   - the number of lines from the end of the log to read
+     * @return the requested part of the log
+     */
     @GetMapping("")
-    public ResponseEntity<String> getLog() {
-        logger.info("GET /Log");
-        try {
-            String log = new String(Files.readAllBytes(Paths.get(PALogger.getLogPath())));
-            return new ResponseEntity<>(log, HttpStatus.OK);
+    public ResponseEntity<byte[]> getLog(@RequestParam(name = "offset", required = false) Long offset,
+            @RequestParam(name = "length", required = false) Integer length,
+            @RequestParam(name = "tail", required = false) Integer tail) {
+        logger.log(Level.INFO, "GET /Log offset={0} length={1} tail={2}", new Object[] { offset, length, tail });
+        if ((offset != null && offset < 0) || (length != null && length < 0) || (tail != null && tail < 0))
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+
+        try (FileChannel channel = FileChannel.open(Paths.get(PALogger.getLogPath()), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start;
+            long end;
+            if (offset != null) {
+                start = Math.min(offset, size);
+                end = Math.min(size, start + (length == null ? MAX_LENGTH : Math.min(length, MAX_LENGTH)));
+            } else {
+                end = size;
+                start = Math.max(findTailStart(channel, tail == null ? DEFAULT_TAIL_LINES : tail), size - MAX_LENGTH);
+            }
+            byte[] body = read(channel, start, (int) (end - start));
+            return ResponseEntity.ok().contentType(TEXT_PLAIN_UTF8).header(LOG_SIZE_HEADER, Long.toString(size))
+                    .header(LOG_OFFSET_HEADER, Long.toString(start)).body(body);
+        } catch (NoSuchFileException e) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         } catch (IOException e) {
             logger.log(Level.SEVERE, "LogEndpoint::IOException", e);
             return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
         }
     }
+
+    /**
+     * Stream the last tail lines of the log followed by everything written to it
+     * until the client disconnects or the given number of seconds pass. The log
+     * is polled on a shared scheduler so a follower does not hold a thread while
+     * it waits, and at most log_max_followers clients may follow at once.
+     *
+     * @param tail    - the number of lines from the end of the log to start with
+     * @param seconds - how long to follow the log (at most 540)
+     * @return the streamed log or 503 if too many clients are following
+     */
+    @GetMapping(value = "", params = "follow=true")
+    public ResponseEntity<ResponseBodyEmitter> followLog(
+            @RequestParam(name = "tail", required = false) Integer tail,
+            @RequestParam(name = "seconds", required = false) Integer seconds) {
+        logger.log(Level.INFO, "GET /Log follow tail={0} seconds={1}", new Object[] { tail, seconds });
+        if ((tail != null && tail < 0) || (seconds != null && seconds <= 0))
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        long followMillis = TimeUnit.SECONDS
+                .toMillis(seconds == null ? DEFAULT_FOLLOW_SECONDS : Math.min(seconds, MAX_FOLLOW_SECONDS));
+
+        if (FOLLOWERS.incrementAndGet() > MAX_FOLLOWERS) {
+            FOLLOWERS.decrementAndGet();
+            logger.warning("LogEndpoint::Already " + MAX_FOLLOWERS + " clients following the log");
+            return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        Path path = Paths.get(PALogger.getLogPath());
+        long position;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            position = findTailStart(channel, tail == null ? DEFAULT_FOLLOW_TAIL_LINES : tail);
+        } catch (NoSuchFileException e) {
+            FOLLOWERS.decrementAndGet();
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        } catch (IOException e) {
+            FOLLOWERS.decrementAndGet();
+            logger.log(Level.SEVERE, "LogEndpoint::IOException", e);
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+
+        // Completed by the follower, the timeout only covers a stalled client
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(followMillis + FOLLOW_TIMEOUT_MARGIN_MILLIS);
+        new Follower(emitter, path, position, System.currentTimeMillis() + followMillis).start();
+        return ResponseEntity.ok().contentType(TEXT_PLAIN_UTF8).body(emitter);
+    }
+
+    /**
+     * Sends what was written to the log since the last poll to one client. Each
+     * poll sends at most 4 MB and the rest follows on the next poll.
+     */
+    private static class Follower implements Runnable {
+        private final ResponseBodyEmitter emitter;
+        private final Path path;
+        private final long deadline;
+        private final AtomicBoolean stopped = new AtomicBoolean(false);
+        private volatile ScheduledFuture<?> poll;
+        private long position;
+
+        Follower(ResponseBodyEmitter emitter, Path path, long position, long deadline) {
+            this.emitter = emitter;
+            this.path = path;
+            this.position = position;
+            this.deadline = deadline;
+        }
+
+        void start() {
+            emitter.onCompletion(this::stop);
+            emitter.onTimeout(this::stop);
+            emitter.onError(e -> stop());
+            poll = FOLLOW_POLLER.scheduleWithFixedDelay(this, 0, FOLLOW_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (stopped.get())
+                poll.cancel(false);
+        }
+
+        @Override
+        public void run() {
+            if (stopped.get())
+                return;
+            try {
+                byte[] data = readNew();
+                if (data.length > 0)
+                    emitter.send(data, TEXT_PLAIN_UTF8);
+                if (System.currentTimeMillis() >= deadline) {
+                    stop();
+                    emitter.complete();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // The client went away
+                stop();
+                emitter.completeWithError(e);
+            }
+        }
+
+        private byte[] readNew() throws IOException {
+            // Reopen on every poll so a rotated log is picked up
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size < position)
+                    position = 0;
+                byte[] data = read(channel, position, (int) Math.min(size - position, MAX_LENGTH));
+                position += data.length;
+                return data;
+            } catch (NoSuchFileException e) {
+                // Rotating, try again on the next poll
+                return new byte[0];
+            }
+        }
+
+        private void stop() {
+            if (!stopped.compareAndSet(false, true))
+                return;
+            FOLLOWERS.decrementAndGet();
+            ScheduledFuture<?> scheduled = poll;
+            if (scheduled != null)
+                scheduled.cancel(false);
+        }
+    }
+
+    /**
+     * Find the offset of the first of the last lines of a file by reading
+     * backwards from the end in chunks. A newline at the very end does not start
+     * a new line.
+     *
+     * @param channel - the file.
+     * @param lines   - the number of lines.
+     * @return the offset of the first byte of the last lines.
+     */
+    static long findTailStart(FileChannel channel, int lines) throws IOException {
+        long size = channel.size();
+        if (lines == 0 || size == 0)
+            return size;
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        long end = size - 1;
+        int newlines = 0;
+        while (end > 0) {
+            long start = Math.max(0, end - CHUNK_SIZE);
+            buffer.clear();
+            buffer.limit((int) (end - start));
+            channel.read(buffer, start);
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n' && ++newlines == lines)
+                    return start + i + 1;
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    private static byte[] read(FileChannel channel, long start, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) <= 0)
+                break;
+        }
+        return buffer.position() == length ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+    }
 }
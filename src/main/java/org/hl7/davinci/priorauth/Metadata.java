@@ -1,6 +1,15 @@
 package org.hl7.davinci.priorauth;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Calendar;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.google.common.hash.Hashing;
 
 import org.hl7.fhir.r4.model.CapabilityStatement;
 import org.hl7.fhir.r4.model.StringType;
@@ -14,6 +23,7 @@ import org.hl7.fhir.r4.model.CapabilityStatement.RestfulCapabilityMode;
 import org.hl7.fhir.r4.model.CapabilityStatement.TypeRestfulInteraction;
 import org.hl7.fhir.r4.model.Enumerations.FHIRVersion;
 import org.hl7.fhir.r4.model.Enumerations.PublicationStatus;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -30,27 +40,80 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/metadata")
 public class Metadata {
 
+  static final MediaType FHIR_JSON = MediaType.parseMediaType("application/fhir+json;charset=UTF-8");
+  static final MediaType FHIR_XML = MediaType.parseMediaType("application/fhir+xml;charset=UTF-8");
+
   /**
-   * Cached CapabilityStatement.
+   * The CapabilityStatement never changes while the service runs so each
+   * representation is serialized and compressed once.
    */
-  private CapabilityStatement capabilityStatement = null;
+  private final Representation json;
+  private final Representation prettyJson;
+  private final Representation xml;
+  private final Representation prettyXml;
+
+  public Metadata() {
+    CapabilityStatement capabilityStatement = buildCapabilityStatement();
+    json = new Representation(FhirUtils.json(capabilityStatement), FHIR_JSON);
+    prettyJson = new Representation(FhirUtils.json(capabilityStatement, true), FHIR_JSON);
+    xml = new Representation(FhirUtils.xml(capabilityStatement), FHIR_XML);
+    prettyXml = new Representation(FhirUtils.xml(capabilityStatement, true), FHIR_XML);
+  }
 
   @GetMapping(value = "", produces = { MediaType.APPLICATION_JSON_VALUE, "application/fhir+json" })
-  public ResponseEntity<String> getMetadata() {
-    if (capabilityStatement == null) {
-      capabilityStatement = buildCapabilityStatement();
-    }
-    String json = FhirUtils.json(capabilityStatement);
-    return new ResponseEntity<String>(json, HttpStatus.OK);
+  public ResponseEntity<byte[]> getMetadata(HttpServletRequest request) {
+    return respond(Endpoint.isPretty(request) ? prettyJson : json, request);
   }
 
   @GetMapping(value = "", produces = { MediaType.APPLICATION_XML_VALUE, "application/fhir+xml" })
-  public ResponseEntity<String> getMetadataXml() {
-    if (capabilityStatement == null) {
-      capabilityStatement = buildCapabilityStatement();
+  public ResponseEntity<byte[]> getMetadataXml(HttpServletRequest request) {
+    return respond(Endpoint.isPretty(request) ? prettyXml : xml, request);
+  }
+
+  private ResponseEntity<byte[]> respond(Representation representation, HttpServletRequest request) {
+    boolean gzip = Endpoint.acceptsGzip(request);
+    String etag = gzip ? representation.gzipEtag : representation.etag;
+    if (Endpoint.etagMatches(request, etag))
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT_ENCODING).build();
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT_ENCODING)
+        .contentType(representation.contentType);
+    if (gzip)
+      return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(representation.gzipBody);
+    return response.body(representation.body);
+  }
+
+  /**
+   * A serialized CapabilityStatement, plain and gzip encoded, with the strong
+   * ETag of each encoding.
+   */
+  private static final class Representation {
+    final byte[] body;
+    final String etag;
+    final byte[] gzipBody;
+    final String gzipEtag;
+    final MediaType contentType;
+
+    Representation(String data, MediaType contentType) {
+      this.body = data.getBytes(StandardCharsets.UTF_8);
+      this.etag = etag(body);
+      this.gzipBody = gzip(body);
+      this.gzipEtag = etag(gzipBody);
+      this.contentType = contentType;
+    }
+
+    private static String etag(byte[] bytes) {
+      return "\"" + Hashing.sha256().hashBytes(bytes).toString().substring(0, 32) + "\"";
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+      try (GZIPOutputStream gzipStream = new GZIPOutputStream(compressed)) {
+        gzipStream.write(bytes);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return compressed.toByteArray();
     }
-    String xml = FhirUtils.xml(capabilityStatement);
-    return new ResponseEntity<String>(xml, HttpStatus.OK);
   }
 
   /**
@@ -74,7 +137,7 @@ public class Metadata {
     metadata.setSoftware(software);
     CapabilityStatementImplementationComponent implementation = new CapabilityStatementImplementationComponent();
     implementation.setDescription(metadata.getTitle());
-    implementation.setUrl(App.getBaseUrl() + "metadata");
+    implementation.setUrl("/fhir/metadata");
     metadata.setImplementation(implementation);
     metadata.setFhirVersion(FHIRVersion._4_0_0);
     metadata.addFormat("json");
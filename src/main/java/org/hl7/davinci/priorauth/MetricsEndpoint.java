@@ -0,0 +1,39 @@
+package org.hl7.davinci.priorauth;
+
+import java.util.logging.Logger;
+
+import org.json.simple.JSONObject;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * The Metrics endpoint exposes latency histograms and error counters for the
+ * stages of the Claim/$submit operation and the number of open web-sockets.
+ */
+@CrossOrigin
+@RestController
+@RequestMapping("/Metrics")
+public class MetricsEndpoint {
+
+  static final Logger logger = PALogger.getLogger();
+
+  @GetMapping(value = "", produces = { MediaType.APPLICATION_JSON_VALUE })
+  @SuppressWarnings("unchecked")
+  public ResponseEntity<String> getMetrics() {
+    logger.fine("GET /Metrics");
+    JSONObject metrics = new JSONObject();
+    metrics.put("submit", SubmitMetrics.toJson());
+    JSONObject websocket = new JSONObject();
+    websocket.put("connections", WebSocketSessionRegistry.size());
+    metrics.put("websocket", websocket);
+    JSONObject sse = new JSONObject();
+    sse.put("streams", SseStreamRegistry.size());
+    metrics.put("sse", sse);
+    return new ResponseEntity<>(metrics.toJSONString(), HttpStatus.OK);
+  }
+}
@@ -0,0 +1,123 @@
+package org.hl7.davinci.priorauth;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces web-socket notifications per web-socket. The first notification
+ * for a web-socket opens a batch which is sent after a short linger or as soon
+ * as it holds the maximum number of subscriptions. The batch is sent as a single
+ * message "ping: id1,id2,..." so a burst of updates costs one frame per client
+ * instead of one per subscription.
+ */
+public class NotificationBatcher {
+
+  static final Logger logger = PALogger.getLogger();
+
+  private static final int DEFAULT_BATCH_SIZE = 50;
+  private static final int DEFAULT_LINGER_MILLIS = 25;
+
+  private static final NotificationBatcher INSTANCE = new NotificationBatcher(
+      PropertyProvider.getIntProperty("websocket_batch_size", DEFAULT_BATCH_SIZE),
+      PropertyProvider.getIntProperty("websocket_batch_linger_millis", DEFAULT_LINGER_MILLIS),
+      (websocketId, subscriptionIds) -> SubscribeController.sendMessageToUser(websocketId,
+          WebSocketConfig.SUBSCRIBE_USER_NOTIFICATION, "ping: " + String.join(",", subscriptionIds)));
+
+  private static class Batch {
+    private final Set<String> subscriptionIds = new LinkedHashSet<String>();
+    private final List<CompletableFuture<Boolean>> futures = new ArrayList<CompletableFuture<Boolean>>();
+    private ScheduledFuture<?> timer;
+  }
+
+  private final int batchSize;
+  private final long lingerMillis;
+  private final BiConsumer<String, List<String>> sender;
+  private final Map<String, Batch> batches = new HashMap<String, Batch>();
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "NotificationBatcher");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  NotificationBatcher(int batchSize, long lingerMillis, BiConsumer<String, List<String>> sender) {
+    this.batchSize = Math.max(1, batchSize);
+    this.lingerMillis = Math.max(0, lingerMillis);
+    this.sender = sender;
+  }
+
+  /**
+   * Queue a notification that a subscription bound to a web-socket has an
+   * update.
+   *
+   * @param websocketId    - the web-socket user to notify.
+   * @param subscriptionId - the id of the updated subscription.
+   * @return a future completed with whether the batch holding the notification
+   *         was sent.
+   */
+  public static CompletableFuture<Boolean> ping(String websocketId, String subscriptionId) {
+    return INSTANCE.add(websocketId, subscriptionId);
+  }
+
+  CompletableFuture<Boolean> add(String websocketId, String subscriptionId) {
+    CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+    Batch full = null;
+    synchronized (this) {
+      Batch batch = batches.get(websocketId);
+      if (batch == null) {
+        batch = new Batch();
+        batches.put(websocketId, batch);
+        Batch opened = batch;
+        batch.timer = scheduler.schedule(() -> flush(websocketId, opened), lingerMillis, TimeUnit.MILLISECONDS);
+      }
+      // A repeated id is only listed once
+      batch.subscriptionIds.add(subscriptionId);
+      batch.futures.add(future);
+      if (batch.subscriptionIds.size() >= batchSize) {
+        batches.remove(websocketId);
+        batch.timer.cancel(false);
+        full = batch;
+      }
+    }
+    if (full != null) {
+      Batch send = full;
+      scheduler.execute(() -> send(websocketId, send));
+    }
+    return future;
+  }
+
+  private void flush(String websocketId, Batch batch) {
+    synchronized (this) {
+      // Already sent because it filled up
+      if (batches.get(websocketId) != batch)
+        return;
+      batches.remove(websocketId);
+    }
+    send(websocketId, batch);
+  }
+
+  private void send(String websocketId, Batch batch) {
+    boolean sent = false;
+    try {
+      sender.accept(websocketId, new ArrayList<String>(batch.subscriptionIds));
+      sent = true;
+    } catch (RuntimeException e) {
+      logger.log(Level.SEVERE, "NotificationBatcher::send", e);
+    }
+    logger.log(Level.FINE, "NotificationBatcher::send websocketId={0} subscriptions={1}",
+        new Object[] { websocketId, batch.subscriptionIds.size() });
+    for (CompletableFuture<Boolean> future : batch.futures)
+      future.complete(sent);
+  }
+}
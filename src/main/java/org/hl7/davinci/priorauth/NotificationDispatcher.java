@@ -0,0 +1,228 @@
+package org.hl7.davinci.priorauth;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.hl7.davinci.priorauth.Database.Table;
+import org.hl7.fhir.r4.model.Subscription.SubscriptionChannelType;
+import org.hl7.fhir.r4.model.Subscription.SubscriptionStatus;
+
+/**
+ * Delivers the subscription notifications in the Outbox table. Notifications
+ * are written to the Outbox in the same transaction as the ClaimResponse they
+ * announce and are delivered in the background. Each subscription receives its
+ * notifications in order, one at a time. Failed deliveries are retried with
+ * exponential backoff and jitter until the maximum number of attempts, after
+ * which the notification is kept as dead and the subscription is set to error.
+ */
+public class NotificationDispatcher {
+
+  static final Logger logger = PALogger.getLogger();
+
+  static final String PENDING = "pending";
+  static final String DEAD = "dead";
+
+  private static final int DEFAULT_MAX_ATTEMPTS = 8;
+  private static final int DEFAULT_BASE_DELAY_MILLIS = 1000;
+  private static final long MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  private static final long POLL_MILLIS = 1000;
+  private static final int BATCH_SIZE = 500;
+
+  static final int MAX_ATTEMPTS = PropertyProvider.getIntProperty("outbox_max_attempts", DEFAULT_MAX_ATTEMPTS);
+  private static final long BASE_DELAY_MILLIS = PropertyProvider.getIntProperty("outbox_base_delay_millis",
+      DEFAULT_BASE_DELAY_MILLIS);
+
+  private static final ScheduledExecutorService POLLER = Executors
+      .newSingleThreadScheduledExecutor(NotificationDispatcher::newPollerThread);
+
+  /**
+   * Subscriptions with a delivery in progress. Only the poller thread adds.
+   */
+  private static final Set<String> IN_FLIGHT = ConcurrentHashMap.newKeySet();
+  private static final AtomicBoolean STARTED = new AtomicBoolean(false);
+
+  /**
+   * Start polling the Outbox. Notifications left over from a previous run are
+   * delivered as well.
+   */
+  public static void start() {
+    if (STARTED.compareAndSet(false, true))
+      POLLER.scheduleWithFixedDelay(NotificationDispatcher::poll, 0, POLL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Check the Outbox now instead of waiting for the next poll, e.g. after new
+   * notifications were written.
+   */
+  public static void wake() {
+    start();
+    POLLER.execute(NotificationDispatcher::poll);
+  }
+
+  /**
+   * Create the Outbox row for a new notification to a subscription. The row
+   * should be written with Database.writeAll together with the change it
+   * announces.
+   *
+   * @param subscriptionId  - the id of the subscription to notify.
+   * @param claimResponseId - the id of the new ClaimResponse.
+   * @return the Table and row to write.
+   */
+  public static Map.Entry<Table, Map<String, Object>> newNotification(String subscriptionId,
+      String claimResponseId) {
+    Map<String, Object> notification = new HashMap<String, Object>();
+    notification.put("id", UUID.randomUUID().toString());
+    notification.put("subscriptionId", subscriptionId);
+    notification.put("claimResponseId", claimResponseId);
+    notification.put("status", PENDING);
+    return new AbstractMap.SimpleEntry<Table, Map<String, Object>>(Table.OUTBOX, notification);
+  }
+
+  /**
+   * Send every due notification which is the oldest pending notification of a
+   * subscription without a delivery in progress. Runs on the poller thread.
+   */
+  static void poll() {
+    try {
+      for (Map<String, Object> notification : App.getDB().readDueNotifications(new Date(), BATCH_SIZE)) {
+        String subscriptionId = (String) notification.get("subscriptionId");
+        if (!IN_FLIGHT.add(subscriptionId))
+          continue;
+
+        String id = (String) notification.get("id");
+        String claimResponseId = (String) notification.get("claimResponseId");
+        int attempts = (int) notification.get("attempts");
+        deliver(subscriptionId, claimResponseId).exceptionally(e -> {
+          logger.log(Level.SEVERE, "NotificationDispatcher::deliver", e);
+          return false;
+        }).thenAccept(delivered -> {
+          try {
+            complete(id, subscriptionId, attempts + 1, delivered);
+          } finally {
+            IN_FLIGHT.remove(subscriptionId);
+          }
+          // Send the next notification for the subscription
+          POLLER.execute(NotificationDispatcher::poll);
+        });
+      }
+    } catch (RuntimeException e) {
+      // Keep the scheduled poll alive
+      logger.log(Level.SEVERE, "NotificationDispatcher::poll", e);
+    }
+  }
+
+  /**
+   * Compute the delay before the next attempt. The delay doubles with every
+   * attempt up to 5 minutes and is randomized between half and all of that so
+   * retries to the same endpoint spread out.
+   *
+   * @param attempts - the number of attempts so far.
+   * @return the delay in milliseconds.
+   */
+  static long getBackoffMillis(int attempts) {
+    long delay = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempts - 1, 20));
+    return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+  }
+
+  private static CompletableFuture<Boolean> deliver(String subscriptionId, String claimResponseId) {
+    SubscriptionRegistry.Entry subscription = SubscriptionRegistry.get(subscriptionId);
+    if (subscription == null)
+      return CompletableFuture.completedFuture(false);
+
+    // Notifications from before the ClaimResponse was recorded can only be empty
+    NotificationPayload.Content content = subscription.getPayload();
+    if (claimResponseId == null)
+      content = NotificationPayload.Content.EMPTY;
+    String mimeType = subscription.getPayloadMimeType();
+    byte[] resource = null;
+    if (content == NotificationPayload.Content.FULL_RESOURCE) {
+      resource = NotificationPayload.getResource(claimResponseId, mimeType);
+      if (resource == null)
+        content = NotificationPayload.Content.ID_ONLY;
+    }
+
+    SubscriptionChannelType subscriptionType = subscription.getChannelType();
+    if (subscriptionType == SubscriptionChannelType.RESTHOOK) {
+      String endpoint = subscription.getEndpoint();
+      logger.log(Level.INFO, "SubscriptionHandler::Sending rest-hook notification to {0}", endpoint);
+      if (content == NotificationPayload.Content.ID_ONLY)
+        return RestHookClient.notify(endpoint, "text/plain",
+            NotificationPayload.getReference(claimResponseId).getBytes(StandardCharsets.UTF_8));
+      else if (content == NotificationPayload.Content.FULL_RESOURCE)
+        return RestHookClient.notify(endpoint, mimeType, resource);
+      return RestHookClient.notify(endpoint);
+    } else if (subscriptionType == SubscriptionChannelType.WEBSOCKET) {
+      String message = "ping: " + subscriptionId;
+      if (content == NotificationPayload.Content.ID_ONLY)
+        message += " " + NotificationPayload.getReference(claimResponseId);
+      if (SseStreamRegistry.isBound(subscriptionId)) {
+        logger.log(Level.INFO, "SubscriptionHandler::Sending Server-Sent Events notification for {0}",
+            subscriptionId);
+        return SseStreamRegistry.notify(subscriptionId, message, resource, mimeType);
+      }
+      String websocketId = subscription.getWebsocketId();
+      if (websocketId == null) {
+        logger.warning("SubscriptionHandler::Unable to send web-socket notification for subscription "
+            + subscriptionId + " because web-socket id is null. Client did not bind a websocket to id");
+        return CompletableFuture.completedFuture(false);
+      }
+      if (!WebSocketSessionRegistry.isConnected(websocketId)) {
+        // Retried in case the client reconnects and binds again
+        logger.log(Level.WARNING, "SubscriptionHandler::Web-socket {0} is not connected", websocketId);
+        return CompletableFuture.completedFuture(false);
+      }
+      logger.log(Level.INFO, "SubscriptionHandler::Sending web-socket notification to {0}", websocketId);
+      if (content == NotificationPayload.Content.EMPTY)
+        return NotificationBatcher.ping(websocketId, subscriptionId);
+      return CompletableFuture.completedFuture(
+          SubscribeController.sendNotificationToUser(websocketId, subscriptionId, message, resource, mimeType));
+    }
+    return CompletableFuture.completedFuture(false);
+  }
+
+  private static void complete(String id, String subscriptionId, int attempts, boolean delivered) {
+    Map<String, Object> outboxConstraint = Collections.singletonMap("id", id);
+    Map<String, Object> subscriptionConstraint = Collections.singletonMap("id", subscriptionId);
+    if (delivered) {
+      App.getDB().delete(Table.OUTBOX, id);
+      App.getDB().update(Table.SUBSCRIPTION, subscriptionConstraint,
+          Collections.singletonMap("status", SubscriptionStatus.ACTIVE.getDisplay().toLowerCase()));
+    } else if (attempts >= MAX_ATTEMPTS) {
+      logger.warning("NotificationDispatcher::Giving up on notification " + id + " to subscription "
+          + subscriptionId + " after " + attempts + " attempts");
+      Map<String, Object> dead = new HashMap<String, Object>();
+      dead.put("status", DEAD);
+      dead.put("attempts", attempts);
+      App.getDB().update(Table.OUTBOX, outboxConstraint, dead);
+      App.getDB().update(Table.SUBSCRIPTION, subscriptionConstraint,
+          Collections.singletonMap("status", SubscriptionStatus.ERROR.getDisplay().toLowerCase()));
+    } else {
+      Map<String, Object> retry = new HashMap<String, Object>();
+      retry.put("attempts", attempts);
+      retry.put("nextAttempt", new Timestamp(System.currentTimeMillis() + getBackoffMillis(attempts)).toString());
+      App.getDB().update(Table.OUTBOX, outboxConstraint, retry);
+    }
+  }
+
+  private static Thread newPollerThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, "NotificationDispatcher");
+    thread.setDaemon(true);
+    return thread;
+  }
+}
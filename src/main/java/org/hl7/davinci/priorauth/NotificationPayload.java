@@ -0,0 +1,157 @@
+package org.hl7.davinci.priorauth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.hl7.davinci.priorauth.Database.Table;
+import org.hl7.davinci.priorauth.Endpoint.RequestType;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Extension;
+import org.hl7.fhir.r4.model.Subscription;
+import org.hl7.fhir.r4.model.Subscription.SubscriptionChannelComponent;
+
+/**
+ * The content of subscription notifications. A Subscription without
+ * channel.payload gets empty notifications. With channel.payload the
+ * notification carries the new ClaimResponse in that format, or only its id
+ * when the payload-content extension on channel.payload says id-only.
+ *
+ * Full-resource notifications for a ClaimResponse are encoded once per format
+ * and the same bytes are sent to every subscriber. ClaimResponses are never
+ * changed once stored (an update is a new ClaimResponse with a new id) so the
+ * cache does not need to be invalidated, only bounded.
+ */
+public class NotificationPayload {
+
+  static final Logger logger = PALogger.getLogger();
+
+  static final String CONTENT_EXTENSION_URL = "http://hl7.org/fhir/uv/subscriptions-backport/StructureDefinition/backport-payload-content";
+
+  private static final int DEFAULT_CACHE_SIZE = 256;
+  private static final int CACHE_SIZE = PropertyProvider.getIntProperty("notification_payload_cache_size",
+      DEFAULT_CACHE_SIZE);
+
+  public enum Content {
+    EMPTY("empty"), ID_ONLY("id-only"), FULL_RESOURCE("full-resource");
+
+    private final String code;
+
+    Content(String code) {
+      this.code = code;
+    }
+
+    public String toCode() {
+      return this.code;
+    }
+
+    /**
+     * @param code - the payload-content code.
+     * @return the Content or null if the code is unknown.
+     */
+    public static Content fromCode(String code) {
+      for (Content content : values()) {
+        if (content.code.equals(code))
+          return content;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Encoded ClaimResponses by id and format, least recently used first.
+   */
+  private static final Map<String, byte[]> ENCODED = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+
+  /**
+   * Get the notification content requested by a Subscription.
+   *
+   * @param subscription - the Subscription.
+   * @return the Content or null if the payload is not supported.
+   */
+  public static Content getContent(Subscription subscription) {
+    SubscriptionChannelComponent channel = subscription.getChannel();
+    if (!channel.hasPayload())
+      return Content.EMPTY;
+
+    Content content = Content.FULL_RESOURCE;
+    Extension extension = channel.getPayloadElement().getExtensionByUrl(CONTENT_EXTENSION_URL);
+    if (extension != null && extension.hasValue())
+      content = Content.fromCode(extension.getValue().primitiveValue());
+    if (content == null || (content != Content.EMPTY && getRequestType(channel.getPayload()) == null)) {
+      logger.warning("NotificationPayload::Unsupported payload " + channel.getPayload());
+      return null;
+    }
+    return content;
+  }
+
+  /**
+   * Get the format for a payload mime type.
+   *
+   * @param mimeType - the Subscription.channel.payload.
+   * @return JSON or XML, or null if the mime type is neither.
+   */
+  public static RequestType getRequestType(String mimeType) {
+    if (mimeType == null)
+      return null;
+    String type = mimeType.split(";")[0].trim().toLowerCase();
+    if (type.equals("application/fhir+json") || type.equals("application/json") || type.equals("json"))
+      return RequestType.JSON;
+    if (type.equals("application/fhir+xml") || type.equals("application/xml") || type.equals("xml"))
+      return RequestType.XML;
+    return null;
+  }
+
+  /**
+   * Get the id-only payload.
+   *
+   * @param claimResponseId - the id of the new ClaimResponse.
+   * @return the relative reference to the ClaimResponse.
+   */
+  public static String getReference(String claimResponseId) {
+    return "ClaimResponse/" + claimResponseId;
+  }
+
+  /**
+   * Get a stored ClaimResponse encoded for a full-resource notification. Only
+   * the first call for a ClaimResponse and format reads and encodes it.
+   *
+   * @param claimResponseId - the id of the new ClaimResponse.
+   * @param mimeType        - the Subscription.channel.payload.
+   * @return the encoded ClaimResponse Bundle, shared by every caller, or null if
+   *         it is not stored.
+   */
+  public static byte[] getResource(String claimResponseId, String mimeType) {
+    RequestType requestType = getRequestType(mimeType);
+    if (claimResponseId == null || requestType == null)
+      return null;
+    String key = claimResponseId + "|" + requestType.name();
+    synchronized (ENCODED) {
+      byte[] encoded = ENCODED.get(key);
+      if (encoded != null)
+        return encoded;
+    }
+
+    IBaseResource resource = App.getDB().read(Table.CLAIM_RESPONSE, Collections.singletonMap("id", claimResponseId));
+    if (resource == null) {
+      logger.log(Level.WARNING, "NotificationPayload::ClaimResponse {0} not found", claimResponseId);
+      return null;
+    }
+    byte[] encoded = FhirUtils.getFormattedData(resource, requestType, false).getBytes(StandardCharsets.UTF_8);
+    synchronized (ENCODED) {
+      // Keep the bytes already shared if another caller encoded it first
+      byte[] existing = ENCODED.putIfAbsent(key, encoded);
+      return existing != null ? existing : encoded;
+    }
+  }
+}
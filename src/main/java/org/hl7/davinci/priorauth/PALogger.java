@@ -1,12 +1,15 @@
 package org.hl7.davinci.priorauth;
 
-import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
 
 public class PALogger {
 
@@ -16,28 +19,46 @@ public class PALogger {
     private static PALogger singletonPALogger;
 
     private Logger logger;
-    private static String LOG_FILE = "priorauth.log";
+
+    /**
+     * The log rotates by size. The current file is always generation 0.
+     */
+    private static String LOG_FILE_PATTERN = "priorauth.%g.log";
+    private static String LOG_FILE = "priorauth.0.log";
+    private static final int DEFAULT_LOG_FILE_LIMIT = 10 * 1024 * 1024;
+    private static final int DEFAULT_LOG_FILE_COUNT = 5;
+    private static final int DEFAULT_LOG_BUFFER_SIZE = 8192;
 
     private PALogger() {
         this.logger = Logger.getLogger("PriorAuth");
+        // All output goes through the asynchronous handler
+        this.logger.setUseParentHandlers(false);
         try {
-            createLogFileIfNotExists();
-            FileHandler fh = new FileHandler(LOG_FILE);
-            SimpleFormatter formatter = new SimpleFormatter();
-            fh.setFormatter(formatter);
+            // Read the config directly since PropertyProvider logs through PALogger
+            Properties properties = loadProperties();
+            FileHandler fh = new FileHandler(LOG_FILE_PATTERN,
+                    getInt(properties, "log_file_limit_bytes", DEFAULT_LOG_FILE_LIMIT),
+                    getInt(properties, "log_file_count", DEFAULT_LOG_FILE_COUNT), true);
+            ConsoleHandler ch = new ConsoleHandler();
+            KeyValueFormatter formatter = new KeyValueFormatter();
+            for (Handler handler : new Handler[] { fh, ch }) {
+                handler.setFormatter(formatter);
+                handler.setLevel(Level.ALL);
+            }
+            this.logger.addHandler(new AsyncLogHandler(
+                    getInt(properties, "log_buffer_size", DEFAULT_LOG_BUFFER_SIZE), fh, ch));
 
             if (App.debugMode)
                 this.setLevel(Level.FINEST);
             else
                 this.setLevel(Level.INFO);
-
-            this.logger.addHandler(fh);
-
         } catch (SecurityException e) {
+            this.logger.setUseParentHandlers(true);
             this.logger.log(Level.SEVERE,
                     "PALogger::PALogger:SecurityException(SecurityException creating file handler. Logging will not go to file)",
                     e);
         } catch (IOException e) {
+            this.logger.setUseParentHandlers(true);
             this.logger.log(Level.SEVERE, "PALogger::PALogger:IOException", e);
         }
     }
@@ -54,7 +75,7 @@ public class PALogger {
     }
 
     /**
-     * Get the path of the log file
+     * Get the path of the current log file
      * 
      * @return the path of the log file
      */
@@ -62,6 +83,31 @@ public class PALogger {
         return LOG_FILE;
     }
 
+    /**
+     * Wrap a database row for logging. The resource column is left out since it
+     * holds a whole serialized resource. The row is only converted to a string if
+     * the message is logged.
+     * 
+     * @param data - map of the column names and values.
+     * @return an object whose toString describes the row without the resource.
+     */
+    public static Object withoutResource(Map<String, Object> data) {
+        return new Object() {
+            @Override
+            public String toString() {
+                StringBuilder row = new StringBuilder("{");
+                for (Map.Entry<String, Object> entry : data.entrySet()) {
+                    if (entry.getKey().equals("resource"))
+                        continue;
+                    if (row.length() > 1)
+                        row.append(", ");
+                    row.append(entry.getKey()).append('=').append(entry.getValue());
+                }
+                return row.append('}').toString();
+            }
+        };
+    }
+
     /**
      * Sets the level of logging to the logger and all handlers
      * 
@@ -75,8 +121,24 @@ public class PALogger {
         }
     }
 
-    private static void createLogFileIfNotExists() throws IOException {
-        File logFile = new File(LOG_FILE);
-        logFile.createNewFile();
+    private static Properties loadProperties() {
+        Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream("config.properties")) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            // Use the defaults
+        }
+        return properties;
+    }
+
+    private static int getInt(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
     }
-}
\ No newline at end of file
+}
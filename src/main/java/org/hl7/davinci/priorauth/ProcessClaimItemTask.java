@@ -3,6 +3,7 @@ package org.hl7.davinci.priorauth;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.hl7.davinci.priorauth.Database.Table;
@@ -43,15 +44,15 @@ public class ProcessClaimItemTask implements Runnable {
     }
 
     public void run() {
-        logger.info("ProcessClaimItemTask::run:ClaimItem " + this.getItemName());
+        logger.log(Level.INFO, "ProcessClaimItemTask::run:ClaimItem {0}", this.getItemName());
         boolean ret = process();
         this.threadStatus = ret ? 0 : 1; // 0 for success, 1 for error
-        logger.fine("ProcessClaimItemTask::run:Thread exiting for ClaimItem " + this.getItemName() + ":"
-                + this.threadStatus);
+        logger.log(Level.FINE, "ProcessClaimItemTask::run:Thread exiting for ClaimItem {0}:{1}",
+                new Object[] { this.getItemName(), this.threadStatus });
     }
 
     public void start() {
-        logger.fine("ProcessClaimItemTask::start:ClaimItem " + this.getItemName());
+        logger.log(Level.FINE, "ProcessClaimItemTask::start:ClaimItem {0}", this.getItemName());
         if (this.thread == null) {
             this.thread = new Thread(this, this.getItemName());
             this.thread.start();
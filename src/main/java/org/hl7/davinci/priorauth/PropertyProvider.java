@@ -3,6 +3,7 @@ package org.hl7.davinci.priorauth;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.util.Properties;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class PropertyProvider {
@@ -22,8 +23,28 @@ public class PropertyProvider {
         } catch (Exception e) {
             System.out.println("Exception: " + e);
         }
-        logger.info("RulesProperyProvider::getProperty(" + property + "):" + result);
+        logger.log(Level.FINE, "RulesProperyProvider::getProperty({0}):{1}", new Object[] { property, result });
         return result;
     }
 
-}
\ No newline at end of file
+    /**
+     * Get an integer property.
+     *
+     * @param property     - the name of the property.
+     * @param defaultValue - the value to use if the property is missing or not an
+     *                     integer.
+     * @return the value of the property or defaultValue.
+     */
+    public static int getIntProperty(String property, int defaultValue) {
+        String value = getProperty(property);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                logger.warning("PropertyProvider::Invalid " + property + " " + value + ". Using default");
+            }
+        }
+        return defaultValue;
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.hl7.davinci.priorauth;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * The HTTP client shared by every rest-hook subscription notification.
+ * Notifications are sent asynchronously so a slow endpoint does not hold up the
+ * others. Connections are pooled and the dispatcher limits the concurrent
+ * requests in total and per host. All limits and timeouts are configurable.
+ */
+public class RestHookClient {
+
+  static final Logger logger = PALogger.getLogger();
+
+  private static final int DEFAULT_MAX_REQUESTS = 64;
+  private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+  private static final int DEFAULT_TIMEOUT_SECONDS = 10;
+  private static final int MAX_IDLE_CONNECTIONS = 8;
+  private static final long KEEP_ALIVE_MINUTES = 5;
+
+  private static final OkHttpClient CLIENT = buildClient();
+
+  /**
+   * Get the shared client
+   *
+   * @return the OkHttpClient used for rest-hook notifications.
+   */
+  public static OkHttpClient getClient() {
+    return CLIENT;
+  }
+
+  /**
+   * Send an empty rest-hook notification to an endpoint without blocking.
+   *
+   * @param endpoint - the url of the subscriber.
+   * @return a future which completes with true if the endpoint responded with a
+   *         2xx status and false if it responded with an error or could not be
+   *         reached.
+   */
+  public static CompletableFuture<Boolean> notify(String endpoint) {
+    return notify(endpoint, null, new byte[0]);
+  }
+
+  /**
+   * Send a rest-hook notification with a payload to an endpoint without
+   * blocking. The payload is not copied so it can be shared by notifications to
+   * several endpoints.
+   *
+   * @param endpoint - the url of the subscriber.
+   * @param mimeType - the content type of the payload or null for none.
+   * @param payload  - the body of the notification.
+   * @return a future which completes with true if the endpoint responded with a
+   *         2xx status and false if it responded with an error or could not be
+   *         reached.
+   */
+  public static CompletableFuture<Boolean> notify(String endpoint, String mimeType, byte[] payload) {
+    CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+    Request request;
+    try {
+      MediaType contentType = mimeType == null ? null : MediaType.get(mimeType);
+      request = new Request.Builder().post(RequestBody.create(contentType, payload)).url(endpoint).build();
+    } catch (IllegalArgumentException e) {
+      logger.log(Level.SEVERE, "RestHookClient::notify:invalid endpoint " + endpoint, e);
+      result.complete(false);
+      return result;
+    }
+
+    CLIENT.newCall(request).enqueue(new Callback() {
+      @Override
+      public void onFailure(Call call, IOException e) {
+        logger.log(Level.SEVERE, "RestHookClient::IOException in request to " + endpoint, e);
+        result.complete(false);
+      }
+
+      @Override
+      public void onResponse(Call call, Response response) {
+        try (Response closeable = response) {
+          logger.log(Level.FINE, "RestHookClient::Response {0} from {1}", new Object[] { response.code(), endpoint });
+          result.complete(response.isSuccessful());
+        }
+      }
+    });
+    return result;
+  }
+
+  private static OkHttpClient buildClient() {
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(PropertyProvider.getIntProperty("rest_hook_max_requests", DEFAULT_MAX_REQUESTS));
+    dispatcher.setMaxRequestsPerHost(
+        PropertyProvider.getIntProperty("rest_hook_max_requests_per_host", DEFAULT_MAX_REQUESTS_PER_HOST));
+    int timeout = PropertyProvider.getIntProperty("rest_hook_timeout_seconds", DEFAULT_TIMEOUT_SECONDS);
+    return new OkHttpClient.Builder().dispatcher(dispatcher)
+        .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+        .connectTimeout(timeout, TimeUnit.SECONDS).readTimeout(timeout, TimeUnit.SECONDS)
+        .writeTimeout(timeout, TimeUnit.SECONDS).callTimeout(2L * timeout, TimeUnit.SECONDS).build();
+  }
+}
@@ -0,0 +1,185 @@
+package org.hl7.davinci.priorauth;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * The open Server-Sent Events streams and the Subscriptions bound to each.
+ * Streams are async responses so an idle stream does not hold a servlet
+ * thread. Events are written on a small pool so a slow client cannot block the
+ * notification dispatcher, and a comment is sent periodically so proxies keep
+ * idle streams open and closed streams are noticed.
+ */
+public class SseStreamRegistry {
+
+  static final Logger logger = PALogger.getLogger();
+
+  private static final int DEFAULT_TIMEOUT_MINUTES = 30;
+  private static final int DEFAULT_HEARTBEAT_SECONDS = 30;
+  private static final int SENDERS = 4;
+
+  private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES
+      .toMillis(PropertyProvider.getIntProperty("sse_timeout_minutes", DEFAULT_TIMEOUT_MINUTES));
+
+  private static final Map<String, Set<SseEmitter>> BY_SUBSCRIPTION = new ConcurrentHashMap<String, Set<SseEmitter>>();
+  private static final Set<SseEmitter> STREAMS = ConcurrentHashMap.newKeySet();
+
+  private static final ExecutorService SENDER = Executors.newFixedThreadPool(SENDERS, runnable -> {
+    Thread thread = new Thread(runnable, "SseStreamRegistry");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private static final ScheduledExecutorService HEARTBEAT = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "SseStreamRegistry-heartbeat");
+    thread.setDaemon(true);
+    return thread;
+  });
+  static {
+    int heartbeatSeconds = PropertyProvider.getIntProperty("sse_heartbeat_seconds", DEFAULT_HEARTBEAT_SECONDS);
+    HEARTBEAT.scheduleWithFixedDelay(SseStreamRegistry::heartbeat, heartbeatSeconds, heartbeatSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  /**
+   * Open a stream bound to Subscriptions. The client receives "bound: id" for
+   * each Subscription and then "ping: id" when one is updated.
+   *
+   * @param subscriptionIds - the ids of the Subscriptions to bind.
+   * @return the stream to return from the controller.
+   */
+  public static SseEmitter open(Collection<String> subscriptionIds) {
+    return open(subscriptionIds, new SseEmitter(TIMEOUT_MILLIS));
+  }
+
+  static SseEmitter open(Collection<String> subscriptionIds, SseEmitter emitter) {
+    STREAMS.add(emitter);
+    for (String subscriptionId : subscriptionIds)
+      BY_SUBSCRIPTION.computeIfAbsent(subscriptionId, k -> ConcurrentHashMap.newKeySet()).add(emitter);
+    Runnable close = () -> close(emitter, subscriptionIds);
+    emitter.onCompletion(close);
+    emitter.onTimeout(close);
+    emitter.onError(e -> close.run());
+
+    // Sent once the response starts
+    for (String subscriptionId : subscriptionIds)
+      send(emitter, "bound: " + subscriptionId);
+    logger.log(Level.INFO, "SseStreamRegistry::open subscriptions={0}", subscriptionIds);
+    return emitter;
+  }
+
+  /**
+   * Whether a Subscription is bound to an open stream.
+   *
+   * @param subscriptionId - the id of the Subscription.
+   * @return true if notifications should be sent as Server-Sent Events.
+   */
+  public static boolean isBound(String subscriptionId) {
+    Set<SseEmitter> emitters = BY_SUBSCRIPTION.get(subscriptionId);
+    return emitters != null && !emitters.isEmpty();
+  }
+
+  /**
+   * Send a notification to every stream bound to a Subscription. A resource is
+   * sent as further data lines of the same event. A data line cannot contain a
+   * newline, so a resource which does (e.g. XML) is split into one data line per
+   * line and the client joins them with newlines. A single-line resource (e.g.
+   * JSON) is sent as is and its bytes are shared by every stream.
+   *
+   * @param subscriptionId - the id of the updated Subscription.
+   * @param message        - the notification, e.g. "ping: id".
+   * @param resource       - the encoded resource or null for none.
+   * @param mimeType       - the content type of the resource.
+   * @return a future completed with whether at least one stream received it.
+   */
+  public static CompletableFuture<Boolean> notify(String subscriptionId, String message, byte[] resource,
+      String mimeType) {
+    Set<SseEmitter> emitters = BY_SUBSCRIPTION.getOrDefault(subscriptionId, Collections.emptySet());
+    return CompletableFuture.supplyAsync(() -> {
+      String[] lines = resource != null && isMultiLine(resource)
+          ? new String(resource, StandardCharsets.UTF_8).split("\\r?\\n|\\r")
+          : null;
+      boolean sent = false;
+      for (SseEmitter emitter : emitters) {
+        SseEmitter.SseEventBuilder event = SseEmitter.event().name("notification").data(message);
+        if (lines != null) {
+          for (String line : lines)
+            event.data(line);
+        } else if (resource != null)
+          event.data(resource, MediaType.parseMediaType(mimeType));
+        sent |= send(emitter, event);
+      }
+      return sent;
+    }, SENDER);
+  }
+
+  /**
+   * The number of open streams.
+   *
+   * @return the number of open streams.
+   */
+  public static int size() {
+    return STREAMS.size();
+  }
+
+  private static boolean isMultiLine(byte[] resource) {
+    for (byte b : resource) {
+      if (b == '\n' || b == '\r')
+        return true;
+    }
+    return false;
+  }
+
+  private static boolean send(SseEmitter emitter, String message) {
+    return send(emitter, SseEmitter.event().name("notification").data(message));
+  }
+
+  private static boolean send(SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+    try {
+      emitter.send(event);
+      return true;
+    } catch (IOException | IllegalStateException e) {
+      // The client went away, the emitter callbacks clean up
+      emitter.completeWithError(e);
+      return false;
+    }
+  }
+
+  private static void heartbeat() {
+    for (SseEmitter emitter : STREAMS) {
+      SENDER.execute(() -> {
+        try {
+          emitter.send(SseEmitter.event().comment("heartbeat"));
+        } catch (IOException | IllegalStateException e) {
+          emitter.completeWithError(e);
+        }
+      });
+    }
+  }
+
+  private static void close(SseEmitter emitter, Collection<String> subscriptionIds) {
+    if (!STREAMS.remove(emitter))
+      return;
+    for (String subscriptionId : subscriptionIds) {
+      BY_SUBSCRIPTION.computeIfPresent(subscriptionId, (k, emitters) -> {
+        emitters.remove(emitter);
+        return emitters.isEmpty() ? null : emitters;
+      });
+    }
+    logger.log(Level.FINE, "SseStreamRegistry::close subscriptions={0}", subscriptionIds);
+  }
+}
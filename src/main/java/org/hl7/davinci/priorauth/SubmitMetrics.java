@@ -0,0 +1,81 @@
+package org.hl7.davinci.priorauth;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Latency histograms and error counters for each stage of the Claim/$submit
+ * operation.
+ */
+public class SubmitMetrics {
+
+  /**
+   * The stages of the Claim/$submit operation in the order they run.
+   */
+  public enum Stage {
+    PRECHECK("precheck"), PARSE("parse"), VALIDATE("validate"), RESOLVE_RELATED("resolve-related"),
+    PERSIST_REQUEST("persist-request"), ADJUDICATE_ITEMS("adjudicate-items"), AGGREGATE("aggregate"),
+    BUILD_RESPONSE("build-response"), PERSIST_RESPONSE("persist-response");
+
+    private final String value;
+
+    Stage(String value) {
+      this.value = value;
+    }
+
+    public String value() {
+      return this.value;
+    }
+  }
+
+  private static final Map<Stage, LatencyHistogram> HISTOGRAMS = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+  static {
+    for (Stage stage : Stage.values())
+      HISTOGRAMS.put(stage, new LatencyHistogram());
+  }
+
+  /**
+   * Run a stage and record its latency. The stage failed if it returns false or
+   * throws.
+   *
+   * @param stage - the stage being run.
+   * @param step  - the work for the stage.
+   * @return the result of the step.
+   */
+  public static boolean time(Stage stage, BooleanSupplier step) {
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      success = step.getAsBoolean();
+      return success;
+    } finally {
+      HISTOGRAMS.get(stage).record(System.nanoTime() - start, success);
+    }
+  }
+
+  /**
+   * Get the histogram for a stage
+   *
+   * @param stage - the stage.
+   * @return the latency histogram for the stage.
+   */
+  public static LatencyHistogram getHistogram(Stage stage) {
+    return HISTOGRAMS.get(stage);
+  }
+
+  /**
+   * Summarize every stage as JSON keyed by the stage name.
+   *
+   * @return JSON summary of the submit stages.
+   */
+  @SuppressWarnings("unchecked")
+  public static JSONObject toJson() {
+    JSONObject json = new JSONObject();
+    for (Stage stage : Stage.values())
+      json.put(stage.value(), HISTOGRAMS.get(stage).toJson());
+    return json;
+  }
+}
@@ -0,0 +1,228 @@
+package org.hl7.davinci.priorauth;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.hl7.davinci.priorauth.Endpoint.RequestType;
+
+/**
+ * Cheap structural check of a Claim/$submit body before the full FHIR parse.
+ * Streams the body just far enough to find the resourceType of the root and of
+ * the first entry so that oversized, malformed or wrong-type payloads are
+ * rejected without building the resource tree. Anything that passes is still
+ * fully parsed and validated afterwards.
+ */
+public class SubmitPrecheck {
+
+  static final Logger logger = PALogger.getLogger();
+
+  public enum Result {
+    OK, TOO_LARGE, MALFORMED, NOT_BUNDLE, NOT_CLAIM;
+  }
+
+  private static final String FHIR_NAMESPACE = "http://hl7.org/fhir";
+  private static final int DEFAULT_MAX_BYTES = 10 * 1024 * 1024;
+  private static final int MAX_BYTES = PropertyProvider.getIntProperty("submit_max_bytes", DEFAULT_MAX_BYTES);
+  private static final int BUFFER_SIZE = 8192;
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final XMLInputFactory XML_FACTORY = XMLInputFactory.newInstance();
+  static {
+    XML_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    XML_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+  }
+
+  /**
+   * Read the body of a $submit request. A body whose Content-Length is over
+   * submit_max_bytes is rejected without being read, and a body without a
+   * Content-Length is read no further than the limit. The body is decoded with
+   * the charset of the request, or UTF-8 if it has none.
+   *
+   * @param request - the $submit request.
+   * @return the body or null if it is larger than submit_max_bytes.
+   * @throws IOException if the body cannot be read.
+   */
+  public static String readBody(HttpServletRequest request) throws IOException {
+    return readBody(request, MAX_BYTES);
+  }
+
+  static String readBody(HttpServletRequest request, int maxBytes) throws IOException {
+    long contentLength = request.getContentLengthLong();
+    if (contentLength > maxBytes)
+      return null;
+    ByteArrayOutputStream body = new ByteArrayOutputStream(contentLength > 0 ? (int) contentLength : BUFFER_SIZE);
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream in = request.getInputStream()) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        if (body.size() + read > maxBytes)
+          return null;
+        body.write(buffer, 0, read);
+      }
+    }
+    String encoding = request.getCharacterEncoding();
+    return new String(body.toByteArray(), encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding));
+  }
+
+  /**
+   * Check the body of a $submit request.
+   *
+   * @param body        - the body of the request.
+   * @param requestType - the RequestType of the request.
+   * @return OK if the body looks like a Bundle with a Claim as the first entry,
+   *         otherwise the reason it was rejected.
+   */
+  public static Result check(String body, RequestType requestType) {
+    if (body == null || body.isEmpty())
+      return Result.MALFORMED;
+    // Only for bodies not read with readBody, a char is at least one byte
+    if (body.length() > MAX_BYTES)
+      return Result.TOO_LARGE;
+    return requestType == RequestType.JSON ? checkJson(body) : checkXml(body);
+  }
+
+  /**
+   * Scan a JSON body. The keys of an object may come in any order so the whole
+   * root object is walked until both the root and first entry resourceType are
+   * known, skipping over everything else. If the entry array comes before the
+   * root resourceType the rest of the array is skipped to get back to the fields
+   * of the root.
+   */
+  private static Result checkJson(String body) {
+    try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT)
+        return Result.NOT_BUNDLE;
+      JsonStreamContext root = parser.getParsingContext();
+
+      boolean isBundle = false;
+      String firstEntryType = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if (field.equals("resourceType")) {
+          if (value != JsonToken.VALUE_STRING || !parser.getText().equals("Bundle"))
+            return Result.NOT_BUNDLE;
+          isBundle = true;
+        } else if (field.equals("entry")) {
+          if (value != JsonToken.START_ARRAY)
+            return Result.NOT_CLAIM;
+          firstEntryType = readFirstEntryType(parser);
+          if (firstEntryType == null || !firstEntryType.equals("Claim"))
+            return Result.NOT_CLAIM;
+          if (!isBundle)
+            skipTo(parser, root);
+        } else {
+          parser.skipChildren();
+        }
+
+        if (isBundle && firstEntryType != null)
+          return Result.OK;
+      }
+      return isBundle ? Result.NOT_CLAIM : Result.NOT_BUNDLE;
+    } catch (IOException e) {
+      logger.fine("SubmitPrecheck::checkJson:" + e.getMessage());
+      return Result.MALFORMED;
+    }
+  }
+
+  /**
+   * Read the resourceType of the first entry of the entry array. The parser is
+   * positioned on the start of the array and is left wherever the resourceType
+   * was found.
+   */
+  private static String readFirstEntryType(JsonParser parser) throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT)
+      return null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      if (field.equals("resource") && value == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String resourceField = parser.getCurrentName();
+          JsonToken resourceValue = parser.nextToken();
+          if (resourceField.equals("resourceType"))
+            return resourceValue == JsonToken.VALUE_STRING ? parser.getText() : null;
+          parser.skipChildren();
+        }
+        return null;
+      }
+      parser.skipChildren();
+    }
+    return null;
+  }
+
+  /**
+   * Move the parser on until it is back in the given object, skipping the rest of
+   * every object and array it is inside of.
+   */
+  private static void skipTo(JsonParser parser, JsonStreamContext context) throws IOException {
+    while (parser.getParsingContext() != context) {
+      if (parser.nextToken() == null)
+        throw new JsonParseException(parser, "Unexpected end of input");
+      parser.skipChildren();
+    }
+  }
+
+  /**
+   * Scan an XML body. In FHIR XML the element name is the resource type, so the
+   * check stops at the first element inside the first entry's resource.
+   */
+  private static Result checkXml(String body) {
+    XMLStreamReader reader = null;
+    try {
+      reader = XML_FACTORY.createXMLStreamReader(new StringReader(body));
+      int depth = 0;
+      boolean inFirstEntry = false;
+      boolean inResource = false;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          depth++;
+          String name = reader.getLocalName();
+          if (depth == 1 && (!name.equals("Bundle") || !FHIR_NAMESPACE.equals(reader.getNamespaceURI())))
+            return Result.NOT_BUNDLE;
+          else if (depth == 2 && name.equals("entry"))
+            inFirstEntry = true;
+          else if (depth == 3 && inFirstEntry && name.equals("resource"))
+            inResource = true;
+          else if (depth == 4 && inResource)
+            return name.equals("Claim") ? Result.OK : Result.NOT_CLAIM;
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          depth--;
+          // Only the first entry matters
+          if (depth == 1 && inFirstEntry)
+            return Result.NOT_CLAIM;
+        }
+      }
+      return Result.NOT_CLAIM;
+    } catch (XMLStreamException e) {
+      logger.fine("SubmitPrecheck::checkXml:" + e.getMessage());
+      return Result.MALFORMED;
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException e) {
+          // Nothing to release
+        }
+      }
+    }
+  }
+}
@@ -5,11 +5,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.MimeTypeUtils;
 
 import java.security.Principal;
 import java.util.Collections;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -17,6 +22,7 @@ import java.util.regex.Pattern;
 @Controller
 public class SubscribeController {
     public static final String ENDPOINT_SUBSCRIBE = "/subscribe";
+    public static final String SUBSCRIPTION_ID_HEADER = "subscription-id";
 
     static final Logger logger = PALogger.getLogger();
 
@@ -43,9 +49,10 @@ public class SubscribeController {
             // Bind the id to the subscription in db
             String subscriptionId = matcher.group(1);
             if (App.getDB().update(Table.SUBSCRIPTION, Collections.singletonMap("id", subscriptionId),
-                    Collections.singletonMap("websocketId", username)))
+                    Collections.singletonMap("websocketId", username))) {
+                SubscriptionRegistry.bind(subscriptionId, username);
                 sendMessageToUser(username, WebSocketConfig.SUBSCRIBE_USER_NOTIFICATION, "bound: " + subscriptionId);
-            else
+            } else
                 sendMessageToUser(username, WebSocketConfig.SUBSCRIBE_USER_NOTIFICATION,
                         "Unable to bind " + subscriptionId + " because it does not exist");
 
@@ -61,4 +68,40 @@ public class SubscribeController {
         logger.info("SubscribeController::Message sent to " + username + " on " + channel);
     }
 
+    /**
+     * Send a Subscription notification to a user. A resource is sent as the
+     * message body as is, so the same bytes can be sent to every user, with the
+     * Subscription id in the subscription-id header.
+     *
+     * @param username       - the web-socket user.
+     * @param subscriptionId - the id of the updated Subscription.
+     * @param message        - the notification when there is no resource, e.g.
+     *                       "ping: id".
+     * @param resource       - the encoded resource or null for none.
+     * @param mimeType       - the content type of the resource.
+     * @return true if the message was sent, false otherwise.
+     */
+    public static boolean sendNotificationToUser(String username, String subscriptionId, String message,
+            byte[] resource, String mimeType) {
+        try {
+            if (resource == null) {
+                sendMessageToUser(username, WebSocketConfig.SUBSCRIBE_USER_NOTIFICATION, message);
+                return true;
+            }
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            headers.setContentType(MimeTypeUtils.parseMimeType(mimeType));
+            headers.setNativeHeader(SUBSCRIPTION_ID_HEADER, subscriptionId);
+            headers.setLeaveMutable(true);
+            // Sent without conversion so the payload is not copied
+            String destination = messagingTemplate.getUserDestinationPrefix() + username
+                    + WebSocketConfig.SUBSCRIBE_USER_NOTIFICATION;
+            messagingTemplate.send(destination, MessageBuilder.createMessage(resource, headers.getMessageHeaders()));
+            logger.info("SubscribeController::Resource sent to " + username + " for " + subscriptionId);
+            return true;
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "SubscribeController::sendNotificationToUser", e);
+            return false;
+        }
+    }
+
 }
\ No newline at end of file
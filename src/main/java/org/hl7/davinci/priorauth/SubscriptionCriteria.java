@@ -0,0 +1,147 @@
+package org.hl7.davinci.priorauth;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Date;
+import java.util.logging.Logger;
+
+import org.hl7.fhir.r4.model.DateTimeType;
+
+import ca.uhn.fhir.parser.DataFormatException;
+
+/**
+ * The parsed criteria of a Subscription. Criteria are a ClaimResponse search in
+ * the form [ClaimResponse?]identifier=id&patient.identifier=patient with an
+ * optional status and end. Parameters may be in any order and are URL decoded.
+ * Criteria are parsed once when the Subscription is created or loaded and
+ * matching an update is then a few string comparisons.
+ */
+public class SubscriptionCriteria {
+
+  static final Logger logger = PALogger.getLogger();
+
+  static final String IDENTIFIER = "identifier";
+  static final String PATIENT_IDENTIFIER = "patient.identifier";
+  static final String STATUS = "status";
+  static final String END = "end";
+
+  private static final String RESOURCE_PREFIX = "ClaimResponse?";
+
+  private String claimResponseId;
+  private String patient;
+  private String status;
+  private String end;
+  private Date endDate;
+
+  private SubscriptionCriteria() {
+  }
+
+  /**
+   * Parse Subscription criteria.
+   *
+   * @param criteria - the Subscription.criteria.
+   * @return the parsed criteria or null if the criteria are not valid.
+   */
+  public static SubscriptionCriteria parse(String criteria) {
+    if (criteria == null) {
+      logger.severe("SubscriptionCriteria::parse:Subscription.criteria is required");
+      return null;
+    }
+    String query = criteria.startsWith(RESOURCE_PREFIX) ? criteria.substring(RESOURCE_PREFIX.length()) : criteria;
+
+    SubscriptionCriteria parsed = new SubscriptionCriteria();
+    for (String parameter : query.split("&")) {
+      if (parameter.isEmpty())
+        continue;
+      int separator = parameter.indexOf('=');
+      if (separator <= 0) {
+        logger.severe("SubscriptionCriteria::parse:Parameter " + parameter + " is not in the form name=value");
+        return null;
+      }
+      String name = decode(parameter.substring(0, separator));
+      String value = decode(parameter.substring(separator + 1));
+      if (name == null || value == null || value.isEmpty()) {
+        logger.severe("SubscriptionCriteria::parse:Invalid parameter " + parameter);
+        return null;
+      }
+
+      if (name.equals(IDENTIFIER))
+        parsed.claimResponseId = value;
+      else if (name.equals(PATIENT_IDENTIFIER))
+        parsed.patient = value;
+      else if (name.equals(STATUS))
+        parsed.status = value;
+      else if (name.equals(END)) {
+        try {
+          parsed.endDate = new DateTimeType(value).getValue();
+          parsed.end = value;
+        } catch (DataFormatException e) {
+          logger.severe("SubscriptionCriteria::parse:Invalid " + END + " " + value);
+          return null;
+        }
+      } else {
+        logger.severe("SubscriptionCriteria::parse:Unsupported parameter " + name);
+        return null;
+      }
+    }
+
+    if (parsed.claimResponseId == null || parsed.patient == null) {
+      logger.fine("Subscription.criteria: " + criteria);
+      logger.severe("SubscriptionCriteria::parse:Subscription.criteria requires " + IDENTIFIER + " and "
+          + PATIENT_IDENTIFIER);
+      return null;
+    }
+    return parsed;
+  }
+
+  /**
+   * Whether an update to a ClaimResponse matches the criteria.
+   *
+   * @param claimResponseId - the id of the ClaimResponse (the id of the Claim
+   *                        chain).
+   * @param patient         - the patient identifier.
+   * @param status          - the status of the new ClaimResponse.
+   * @return true if the update matches.
+   */
+  public boolean matches(String claimResponseId, String patient, String status) {
+    return this.claimResponseId.equals(claimResponseId) && this.patient.equals(patient)
+        && (this.status == null || this.status.equals(status));
+  }
+
+  public String getClaimResponseId() {
+    return this.claimResponseId;
+  }
+
+  public String getPatient() {
+    return this.patient;
+  }
+
+  /**
+   * @return the status from the criteria or null if any status matches.
+   */
+  public String getStatus() {
+    return this.status;
+  }
+
+  /**
+   * @return the end from the criteria or null if not given.
+   */
+  public String getEnd() {
+    return this.end;
+  }
+
+  /**
+   * @return the end from the criteria as a Date or null if not given.
+   */
+  public Date getEndDate() {
+    return this.endDate;
+  }
+
+  private static String decode(String value) {
+    try {
+      return URLDecoder.decode(value, "UTF-8");
+    } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
@@ -1,13 +1,14 @@
 package org.hl7.davinci.priorauth;
 
+import java.sql.Timestamp;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -22,6 +23,7 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.hl7.davinci.priorauth.Database.Table;
 import org.hl7.davinci.priorauth.Endpoint.RequestType;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -32,8 +34,6 @@ import org.hl7.fhir.r4.model.OperationOutcome.IssueType;
 import org.hl7.fhir.r4.model.Subscription.SubscriptionChannelType;
 import org.hl7.fhir.r4.model.Subscription.SubscriptionStatus;
 
-import ca.uhn.fhir.parser.IParser;
-
 /**
  * The Subscription endpoint to create new subscriptions or delete outdated
  * ones.
@@ -49,6 +49,8 @@ public class SubscriptionEndpoint {
     String SUBSCRIPTION_ADDED_SUCCESS = "Subscription successful";
     String PROCESS_FAILED = "Unable to process the request properly. Check the log for more details.";
     String INVALID_CHANNEL_TYPE = "Invalid channel type. Must be rest-hook or websocket";
+    String INVALID_PAYLOAD = "Invalid channel payload. Must be application/fhir+json or application/fhir+xml"
+            + " with content empty, id-only or full-resource";
 
     @GetMapping(value = "", produces = { MediaType.APPLICATION_JSON_VALUE, "application/fhir+json" })
     public ResponseEntity<String> readSubscriptionJSON(HttpServletRequest request,
@@ -70,73 +72,108 @@ public class SubscriptionEndpoint {
         return Endpoint.read(Table.SUBSCRIPTION, constraintMap, request, RequestType.XML);
     }
 
+    /**
+     * Open a Server-Sent Events stream for WebSocket Subscriptions. The
+     * Subscriptions are bound to the stream instead of a WebSocket, so clients
+     * which cannot use WebSockets still receive the notifications.
+     *
+     * @param ids     - the ids of the Subscriptions to bind.
+     * @param patient - the patient identifier the Subscriptions belong to.
+     * @return the stream or 404 if a Subscription is not found.
+     */
+    @GetMapping(value = "/$events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> openEventStream(@RequestParam(name = "identifier") List<String> ids,
+            @RequestParam(name = "patient.identifier") String patient) {
+        logger.info("GET /Subscription/$events " + ids);
+        Set<String> subscriptionIds = new LinkedHashSet<String>();
+        for (String id : ids) {
+            SubscriptionRegistry.Entry subscription = SubscriptionRegistry.get(id);
+            if (subscription == null || !patient.equals(subscription.getPatient())
+                    || subscription.getChannelType() != SubscriptionChannelType.WEBSOCKET) {
+                logger.warning("SubscriptionEndpoint::No WebSocket Subscription " + id + " for patient " + patient);
+                return ResponseEntity.notFound().build();
+            }
+            subscriptionIds.add(id);
+        }
+        return ResponseEntity.ok(SseStreamRegistry.open(subscriptionIds));
+    }
+
     @PostMapping(value = "", consumes = { MediaType.APPLICATION_JSON_VALUE, "application/fhir+json" })
-    public ResponseEntity<String> addSubscriptionJSON(HttpEntity<String> entity) {
-        return addSubscription(entity.getBody(), RequestType.JSON);
+    public ResponseEntity<String> addSubscriptionJSON(HttpServletRequest request, HttpEntity<String> entity) {
+        return addSubscription(entity.getBody(), RequestType.JSON, Endpoint.isPretty(request));
     }
 
     @PostMapping(value = "", consumes = { MediaType.APPLICATION_XML_VALUE, "application/fhir+xml" })
-    public ResponseEntity<String> addSubscriptionXML(HttpEntity<String> entity) {
-        return addSubscription(entity.getBody(), RequestType.XML);
+    public ResponseEntity<String> addSubscriptionXML(HttpServletRequest request, HttpEntity<String> entity) {
+        return addSubscription(entity.getBody(), RequestType.XML, Endpoint.isPretty(request));
     }
 
     @DeleteMapping(value = "", consumes = { MediaType.APPLICATION_JSON_VALUE, "application/fhir+json" })
     public ResponseEntity<String> deleteSubscriptionJSON(@RequestParam("identifier") String id,
             @RequestParam("patient.identifier") String patient) {
-        return Endpoint.delete(id, patient, Table.SUBSCRIPTION, RequestType.JSON);
+        return deleteSubscription(id, patient, RequestType.JSON);
     }
 
     @DeleteMapping(value = "", consumes = { MediaType.APPLICATION_XML_VALUE, "application/fhir+xml" })
     public ResponseEntity<String> deleteSubscriptionXML(@RequestParam("identifier") String id,
             @RequestParam("patient.identifier") String patient) {
-        return Endpoint.delete(id, patient, Table.SUBSCRIPTION, RequestType.XML);
+        return deleteSubscription(id, patient, RequestType.XML);
     }
 
-    private ResponseEntity<String> addSubscription(String body, RequestType requestType) {
+    private ResponseEntity<String> deleteSubscription(String id, String patient, RequestType requestType) {
+        ResponseEntity<String> response = Endpoint.delete(id, patient, Table.SUBSCRIPTION, requestType);
+        SubscriptionRegistry.remove(id, patient);
+        return response;
+    }
+
+    private ResponseEntity<String> addSubscription(String body, RequestType requestType, boolean pretty) {
         logger.info("POST /Subscription fhir+" + requestType.name());
 
         HttpStatus status = HttpStatus.OK;
         String formattedData = null;
         try {
-            IParser parser = requestType == RequestType.JSON ? App.getFhirContext().newJsonParser()
-                    : App.getFhirContext().newXmlParser();
-            IBaseResource resource = parser.parseResource(body);
+            IBaseResource resource = FhirUtils.getParser(requestType).parseResource(body);
             if (resource instanceof Subscription) {
                 Subscription subscription = (Subscription) resource;
                 SubscriptionChannelType subscriptionType = subscription.getChannel().getType();
 
                 // Check valid subscription type
-                if (subscriptionType == SubscriptionChannelType.RESTHOOK
-                        || subscriptionType == SubscriptionChannelType.WEBSOCKET) {
+                if (subscriptionType != SubscriptionChannelType.RESTHOOK
+                        && subscriptionType != SubscriptionChannelType.WEBSOCKET) {
+                    // Subscription must be rest-hook or websocket....
+                    status = HttpStatus.BAD_REQUEST;
+                    OperationOutcome error = FhirUtils.buildOutcome(IssueSeverity.ERROR, IssueType.INVALID,
+                            INVALID_CHANNEL_TYPE);
+                    formattedData = FhirUtils.getFormattedData(error, requestType, pretty);
+                } else if (NotificationPayload.getContent(subscription) == null) {
+                    status = HttpStatus.BAD_REQUEST;
+                    OperationOutcome error = FhirUtils.buildOutcome(IssueSeverity.ERROR, IssueType.NOTSUPPORTED,
+                            INVALID_PAYLOAD);
+                    formattedData = FhirUtils.getFormattedData(error, requestType, pretty);
+                } else {
                     Subscription processedSubscription = processSubscription(subscription);
                     if (processedSubscription != null)
-                        formattedData = FhirUtils.getFormattedData(processedSubscription, requestType);
+                        formattedData = FhirUtils.getFormattedData(processedSubscription, requestType, pretty);
                     else {
                         status = HttpStatus.BAD_REQUEST;
                         OperationOutcome error = FhirUtils.buildOutcome(IssueSeverity.ERROR, IssueType.INVALID,
                                 PROCESS_FAILED);
-                        formattedData = FhirUtils.getFormattedData(error, requestType);
+                        formattedData = FhirUtils.getFormattedData(error, requestType, pretty);
                     }
-                } else {
-                    // Subscription must be rest-hook or websocket....
-                    status = HttpStatus.BAD_REQUEST;
-                    OperationOutcome error = FhirUtils.buildOutcome(IssueSeverity.ERROR, IssueType.INVALID,
-                            INVALID_CHANNEL_TYPE);
-                    formattedData = FhirUtils.getFormattedData(error, requestType);
                 }
             } else {
                 // Subscription is required...
                 status = HttpStatus.BAD_REQUEST;
                 OperationOutcome error = FhirUtils.buildOutcome(IssueSeverity.ERROR, IssueType.INVALID,
                         REQUIRES_SUBSCRIPTION);
-                formattedData = FhirUtils.getFormattedData(error, requestType);
+                formattedData = FhirUtils.getFormattedData(error, requestType, pretty);
             }
         } catch (Exception e) {
             // The subscription failed so spectacularly that we need to
             // catch an exception and send back an error message...
             status = HttpStatus.BAD_REQUEST;
             OperationOutcome error = FhirUtils.buildOutcome(IssueSeverity.FATAL, IssueType.STRUCTURE, e.getMessage());
-            formattedData = FhirUtils.getFormattedData(error, requestType);
+            formattedData = FhirUtils.getFormattedData(error, requestType, pretty);
         }
         MediaType contentType = requestType == RequestType.JSON ? MediaType.APPLICATION_JSON
                 : MediaType.APPLICATION_XML;
@@ -146,53 +183,23 @@ public class SubscriptionEndpoint {
     }
 
     private Subscription processSubscription(Subscription subscription) {
-        // Get the criteria details parsed
-        String claimResponseId = "";
-        String patient = "";
-        String status = "";
-        String statusVarName = "status";
-        String identifierVarName = "identifier";
-        String patientIdentifierVarName = "patient.identifier";
-        String criteria = subscription.getCriteria();
-        String regex = "(.*)=(.*)&(.*)=(.*)&(.*)=(.*)";
-        String endVarName = "end";
-        String end = "";
-
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(criteria);
-        Map<String, String> criteriaMap = new HashMap<String, String>();
-
-        if (matcher.find() && matcher.groupCount() == 6) {
-            criteriaMap.put(matcher.group(1), matcher.group(2));
-            criteriaMap.put(matcher.group(3), matcher.group(4));
-            criteriaMap.put(matcher.group(5), matcher.group(6));
-        } else {
-            logger.fine("Subscription.criteria: " + criteria);
-            logger.severe("Subcription.criteria is not in the form " + regex);
+        SubscriptionCriteria criteria = SubscriptionCriteria.parse(subscription.getCriteria());
+        if (criteria == null)
             return null;
-        }
-
-        // Determine which variable is which
-        String variableName;
-        for (Iterator<String> iterator = criteriaMap.keySet().iterator(); iterator.hasNext();) {
-            variableName = iterator.next();
-            if (variableName.equals(identifierVarName))
-                claimResponseId = criteriaMap.get(variableName);
-            if (variableName.equals(patientIdentifierVarName))
-                patient = criteriaMap.get(variableName);
-            if (variableName.equals(statusVarName))
-                status = criteriaMap.get(variableName);
-            if (variableName.equals(endVarName))
-                status = criteriaMap.get(variableName);
-        }
+        String claimResponseId = criteria.getClaimResponseId();
+        String patient = criteria.getPatient();
 
         // Check the desired ClaimResponse is pended
         String outcome = App.getDB().readString(Table.CLAIM_RESPONSE, Collections.singletonMap("id", claimResponseId),
                 "outcome");
         logger.info("SubscriptionEndpoint::Outcome for desired resource is: " + outcome);
-        if (!outcome.equals(FhirUtils.ReviewAction.PENDED.value()))
+        if (!FhirUtils.ReviewAction.PENDED.value().equals(outcome))
             return null;
 
+        // The end may be given on the Subscription or in the criteria
+        if (!subscription.hasEnd() && criteria.getEndDate() != null)
+            subscription.setEnd(criteria.getEndDate());
+
         // Add to db
         String id = UUID.randomUUID().toString();
         subscription.setId(id);
@@ -202,12 +209,15 @@ public class SubscriptionEndpoint {
         dataMap.put("id", id);
         dataMap.put("claimResponseId", claimResponseId);
         dataMap.put("patient", patient);
-        dataMap.put("status", status);
+        dataMap.put("status", criteria.getStatus() == null ? "" : criteria.getStatus());
         dataMap.put("resource", subscription);
-        dataMap.put(endVarName, end);
-        if (App.getDB().write(Table.SUBSCRIPTION, dataMap))
+        dataMap.put("end", subscription.hasEnd() ? subscription.getEndElement().getValueAsString() : "");
+        if (subscription.hasEnd())
+            dataMap.put("endTime", new Timestamp(subscription.getEnd().getTime()).toString());
+        if (App.getDB().write(Table.SUBSCRIPTION, dataMap)) {
+            SubscriptionRegistry.add(subscription, criteria);
             return subscription;
-        else
+        } else
             return null;
     }
 }
@@ -0,0 +1,342 @@
+package org.hl7.davinci.priorauth;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.hl7.davinci.priorauth.Database.Table;
+import org.hl7.fhir.r4.model.Subscription;
+import org.hl7.fhir.r4.model.Subscription.SubscriptionChannelType;
+
+/**
+ * In memory index of the Subscriptions by id, by the ClaimResponse they are
+ * subscribed to and by the web-socket they are bound to. The index is loaded
+ * from the database once and then kept up to date on subscribe, bind and
+ * delete so sending notifications does not query the database or parse any
+ * Subscription resources. The criteria of each Subscription are parsed once and
+ * an update is only matched against the Subscriptions to its ClaimResponse. The
+ * database stays the source of truth.
+ */
+public class SubscriptionRegistry {
+
+  static final Logger logger = PALogger.getLogger();
+
+  /**
+   * The fields of a Subscription needed to send a notification.
+   */
+  public static class Entry {
+    private final String id;
+    private final String claimResponseId;
+    private final String patient;
+    private final SubscriptionCriteria criteria;
+    private final SubscriptionChannelType channelType;
+    private final String endpoint;
+    private final NotificationPayload.Content payload;
+    private final String payloadMimeType;
+    private volatile String websocketId;
+
+    Entry(String id, String claimResponseId, String patient, SubscriptionCriteria criteria,
+        SubscriptionChannelType channelType, String endpoint, NotificationPayload.Content payload,
+        String payloadMimeType, String websocketId) {
+      this.id = id;
+      this.claimResponseId = claimResponseId;
+      this.patient = patient;
+      this.criteria = criteria;
+      this.channelType = channelType;
+      this.endpoint = endpoint;
+      this.payload = payload;
+      this.payloadMimeType = payloadMimeType;
+      this.websocketId = websocketId;
+    }
+
+    public String getId() {
+      return this.id;
+    }
+
+    public String getClaimResponseId() {
+      return this.claimResponseId;
+    }
+
+    public String getPatient() {
+      return this.patient;
+    }
+
+    public SubscriptionCriteria getCriteria() {
+      return this.criteria;
+    }
+
+    /**
+     * Whether an update to a ClaimResponse matches the Subscription. Subscriptions
+     * whose criteria could not be parsed match on the stored ClaimResponse id and
+     * patient.
+     */
+    boolean matches(String claimResponseId, String patient, String status) {
+      if (this.criteria != null)
+        return this.criteria.matches(claimResponseId, patient, status);
+      return claimResponseId.equals(this.claimResponseId) && patient != null && patient.equals(this.patient);
+    }
+
+    public SubscriptionChannelType getChannelType() {
+      return this.channelType;
+    }
+
+    public String getEndpoint() {
+      return this.endpoint;
+    }
+
+    public NotificationPayload.Content getPayload() {
+      return this.payload;
+    }
+
+    public String getPayloadMimeType() {
+      return this.payloadMimeType;
+    }
+
+    public String getWebsocketId() {
+      return this.websocketId;
+    }
+  }
+
+  private static final Map<String, Entry> BY_ID = new ConcurrentHashMap<String, Entry>();
+  private static final Map<String, Set<String>> BY_CLAIM_RESPONSE = new ConcurrentHashMap<String, Set<String>>();
+  private static final Map<String, Set<String>> BY_WEBSOCKET = new ConcurrentHashMap<String, Set<String>>();
+  private static volatile boolean loaded = false;
+
+  /**
+   * Load every Subscription in the database into the index, replacing its
+   * contents. Subscriptions stored before the endTime column existed get their
+   * endTime from the end of the stored resource so the sweeper expires them.
+   */
+  public static synchronized void load() {
+    BY_ID.clear();
+    BY_CLAIM_RESPONSE.clear();
+    BY_WEBSOCKET.clear();
+    int backfilled = 0;
+    for (Map<String, Object> row : App.getDB().readSubscriptions()) {
+      Subscription subscription = (Subscription) row.get("resource");
+      SubscriptionCriteria criteria = null;
+      SubscriptionChannelType channelType = null;
+      String endpoint = null;
+      NotificationPayload.Content payload = null;
+      String payloadMimeType = null;
+      if (subscription != null) {
+        criteria = subscription.hasCriteria() ? SubscriptionCriteria.parse(subscription.getCriteria()) : null;
+        channelType = subscription.getChannel().getType();
+        endpoint = subscription.getChannel().getEndpoint();
+        payload = NotificationPayload.getContent(subscription);
+        payloadMimeType = subscription.getChannel().getPayload();
+        if (row.get("endTime") == null && backfillEndTime((String) row.get("id"), subscription, criteria))
+          backfilled++;
+      }
+      index(new Entry((String) row.get("id"), (String) row.get("claimResponseId"), (String) row.get("patient"),
+          criteria, channelType, endpoint, payload == null ? NotificationPayload.Content.EMPTY : payload,
+          payloadMimeType, (String) row.get("websocketId")));
+    }
+    loaded = true;
+    logger.log(Level.INFO, "SubscriptionRegistry::load:{0} subscriptions", BY_ID.size());
+    if (backfilled > 0)
+      logger.log(Level.INFO, "SubscriptionRegistry::load:backfilled endTime of {0} subscriptions", backfilled);
+  }
+
+  /**
+   * Add a Subscription which was just written to the database.
+   *
+   * @param subscription - the Subscription.
+   * @param criteria     - the parsed criteria of the Subscription.
+   */
+  public static void add(Subscription subscription, SubscriptionCriteria criteria) {
+    ensureLoaded();
+    synchronized (SubscriptionRegistry.class) {
+      index(new Entry(FhirUtils.getIdFromResource(subscription), criteria.getClaimResponseId(),
+          criteria.getPatient(), criteria, subscription.getChannel().getType(),
+          subscription.getChannel().getEndpoint(), NotificationPayload.getContent(subscription),
+          subscription.getChannel().getPayload(), null));
+    }
+  }
+
+  /**
+   * Bind a Subscription to a web-socket.
+   *
+   * @param subscriptionId - the id of the Subscription.
+   * @param websocketId    - the web-socket user the notifications are sent to.
+   */
+  public static void bind(String subscriptionId, String websocketId) {
+    ensureLoaded();
+    synchronized (SubscriptionRegistry.class) {
+      Entry entry = BY_ID.get(subscriptionId);
+      if (entry == null)
+        return;
+      unindex(BY_WEBSOCKET, entry.websocketId, subscriptionId);
+      entry.websocketId = websocketId;
+      index(BY_WEBSOCKET, websocketId, subscriptionId);
+    }
+  }
+
+  /**
+   * Unbind every Subscription bound to a web-socket, e.g. after it disconnected.
+   *
+   * @param websocketId - the web-socket user.
+   * @return the ids of the Subscriptions which were bound to it.
+   */
+  public static Set<String> unbindWebsocket(String websocketId) {
+    ensureLoaded();
+    if (websocketId == null)
+      return Collections.emptySet();
+    synchronized (SubscriptionRegistry.class) {
+      Set<String> subscriptionIds = BY_WEBSOCKET.remove(websocketId);
+      if (subscriptionIds == null)
+        return Collections.emptySet();
+      for (String subscriptionId : subscriptionIds) {
+        Entry entry = BY_ID.get(subscriptionId);
+        if (entry != null)
+          entry.websocketId = null;
+      }
+      return subscriptionIds;
+    }
+  }
+
+  /**
+   * Remove a Subscription which was deleted or expired.
+   *
+   * @param subscriptionId - the id of the Subscription.
+   */
+  public static void remove(String subscriptionId) {
+    ensureLoaded();
+    synchronized (SubscriptionRegistry.class) {
+      Entry entry = BY_ID.remove(subscriptionId);
+      if (entry != null) {
+        unindex(BY_CLAIM_RESPONSE, entry.claimResponseId, subscriptionId);
+        unindex(BY_WEBSOCKET, entry.websocketId, subscriptionId);
+      }
+    }
+  }
+
+  /**
+   * Remove a Subscription if it belongs to the patient, matching a delete of the
+   * Subscription by id and patient.
+   *
+   * @param subscriptionId - the id of the Subscription.
+   * @param patient        - the patient identifier.
+   */
+  public static void remove(String subscriptionId, String patient) {
+    Entry entry = get(subscriptionId);
+    if (entry != null && entry.patient != null && entry.patient.equals(patient))
+      remove(subscriptionId);
+  }
+
+  /**
+   * Remove every Subscription, matching a delete of the whole table.
+   */
+  public static synchronized void clear() {
+    BY_ID.clear();
+    BY_CLAIM_RESPONSE.clear();
+    BY_WEBSOCKET.clear();
+    loaded = true;
+  }
+
+  /**
+   * Get a Subscription.
+   *
+   * @param subscriptionId - the id of the Subscription.
+   * @return the Entry for the Subscription or null if it does not exist.
+   */
+  public static Entry get(String subscriptionId) {
+    ensureLoaded();
+    return subscriptionId == null ? null : BY_ID.get(subscriptionId);
+  }
+
+  /**
+   * Get the ids of the Subscriptions matching an update to a ClaimResponse.
+   *
+   * @param claimResponseId - the id of the ClaimResponse.
+   * @param patient         - the patient identifier.
+   * @param status          - the status of the new ClaimResponse.
+   * @return the ids of the Subscriptions.
+   */
+  public static List<String> getSubscriptionIds(String claimResponseId, String patient, String status) {
+    ensureLoaded();
+    List<String> subscriptionIds = new ArrayList<String>();
+    if (claimResponseId == null)
+      return subscriptionIds;
+    for (String subscriptionId : BY_CLAIM_RESPONSE.getOrDefault(claimResponseId, Collections.emptySet())) {
+      Entry entry = BY_ID.get(subscriptionId);
+      if (entry != null && entry.matches(claimResponseId, patient, status))
+        subscriptionIds.add(subscriptionId);
+    }
+    return subscriptionIds;
+  }
+
+  /**
+   * Get the ids of the Subscriptions bound to a web-socket.
+   *
+   * @param websocketId - the web-socket user.
+   * @return the ids of the Subscriptions.
+   */
+  public static Set<String> getWebsocketSubscriptionIds(String websocketId) {
+    ensureLoaded();
+    Set<String> subscriptionIds = websocketId == null ? null : BY_WEBSOCKET.get(websocketId);
+    return subscriptionIds == null ? Collections.emptySet() : Collections.unmodifiableSet(subscriptionIds);
+  }
+
+  /**
+   * Get the web-socket users with at least one Subscription bound.
+   *
+   * @return the web-socket users.
+   */
+  public static Set<String> getWebsocketIds() {
+    ensureLoaded();
+    return Collections.unmodifiableSet(BY_WEBSOCKET.keySet());
+  }
+
+  private static void ensureLoaded() {
+    if (!loaded) {
+      synchronized (SubscriptionRegistry.class) {
+        if (!loaded)
+          load();
+      }
+    }
+  }
+
+  /**
+   * Set the endTime column of a Subscription from Subscription.end or the end
+   * criteria parameter.
+   *
+   * @return true if the Subscription has an end and the endTime was written.
+   */
+  private static boolean backfillEndTime(String id, Subscription subscription, SubscriptionCriteria criteria) {
+    Date end = subscription.hasEnd() ? subscription.getEnd() : null;
+    if (end == null && criteria != null)
+      end = criteria.getEndDate();
+    if (end == null)
+      return false;
+    return App.getDB().update(Table.SUBSCRIPTION, Collections.singletonMap("id", id),
+        Collections.singletonMap("endTime", new Timestamp(end.getTime()).toString()));
+  }
+
+  private static void index(Entry entry) {
+    BY_ID.put(entry.id, entry);
+    index(BY_CLAIM_RESPONSE, entry.claimResponseId, entry.id);
+    index(BY_WEBSOCKET, entry.websocketId, entry.id);
+  }
+
+  private static void index(Map<String, Set<String>> index, String key, String subscriptionId) {
+    if (key != null)
+      index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(subscriptionId);
+  }
+
+  private static void unindex(Map<String, Set<String>> index, String key, String subscriptionId) {
+    if (key != null) {
+      index.computeIfPresent(key, (k, subscriptionIds) -> {
+        subscriptionIds.remove(subscriptionId);
+        return subscriptionIds.isEmpty() ? null : subscriptionIds;
+      });
+    }
+  }
+}
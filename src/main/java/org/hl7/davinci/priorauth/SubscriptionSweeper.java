@@ -0,0 +1,76 @@
+package org.hl7.davinci.priorauth;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes Subscriptions once their end has passed. The sweep runs on a fixed
+ * cadence and deletes expired Subscriptions in batches using the indexed
+ * endTime column, together with their pending notifications and their entries
+ * in the SubscriptionRegistry.
+ */
+public class SubscriptionSweeper {
+
+  static final Logger logger = PALogger.getLogger();
+
+  private static final int DEFAULT_SWEEP_SECONDS = 60;
+  private static final int DEFAULT_BATCH_SIZE = 500;
+
+  private static final int SWEEP_SECONDS = PropertyProvider.getIntProperty("subscription_sweep_seconds",
+      DEFAULT_SWEEP_SECONDS);
+  private static final int BATCH_SIZE = PropertyProvider.getIntProperty("subscription_sweep_batch_size",
+      DEFAULT_BATCH_SIZE);
+
+  private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "SubscriptionSweeper");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private static final AtomicBoolean STARTED = new AtomicBoolean(false);
+
+  /**
+   * Start sweeping expired Subscriptions every subscription_sweep_seconds.
+   */
+  public static void start() {
+    if (STARTED.compareAndSet(false, true))
+      SWEEPER.scheduleWithFixedDelay(SubscriptionSweeper::run, 0, SWEEP_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Delete every Subscription whose end is before now.
+   *
+   * @return the number of Subscriptions deleted.
+   */
+  public static int sweep() {
+    return sweep(new Date());
+  }
+
+  static int sweep(Date now) {
+    int deleted = 0;
+    List<String> ids;
+    do {
+      ids = App.getDB().deleteExpiredSubscriptions(now, BATCH_SIZE);
+      for (String id : ids)
+        SubscriptionRegistry.remove(id);
+      deleted += ids.size();
+    } while (ids.size() == BATCH_SIZE);
+    if (deleted > 0)
+      logger.log(Level.INFO, "SubscriptionSweeper::sweep:deleted {0} expired subscriptions", deleted);
+    return deleted;
+  }
+
+  private static void run() {
+    try {
+      sweep();
+    } catch (RuntimeException e) {
+      // Keep the scheduled sweep alive
+      logger.log(Level.SEVERE, "SubscriptionSweeper::sweep", e);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package org.hl7.davinci.priorauth;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.hl7.davinci.priorauth.Endpoint.RequestType;
+import org.hl7.davinci.rules.PriorAuthRule;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+
+/**
+ * Warms up HAPI FHIR and the rules before the service accepts requests. HAPI
+ * scans resource definitions lazily and the rule engine loads ELM on first use,
+ * so without this the first submit, the first XML request and the first rule
+ * evaluation after startup each pay seconds of initialization.
+ */
+public class Warmup {
+
+  static final Logger logger = PALogger.getLogger();
+
+  /**
+   * The resource types submitted to or returned by the service.
+   */
+  private static final String[] RESOURCE_TYPES = { "Bundle", "Claim", "ClaimResponse", "Patient", "Practitioner",
+      "Organization", "Coverage", "Location", "Encounter", "Condition", "Observation", "Procedure",
+      "QuestionnaireResponse", "ServiceRequest", "DeviceRequest", "MedicationRequest", "NutritionOrder",
+      "Subscription", "OperationOutcome", "CapabilityStatement" };
+
+  private static final String SAMPLE_FOLDER = "src/main/resources/DatabaseResources";
+  private static final String SAMPLE_CLAIM = "Claim.json";
+  private static final long TIMEOUT_SECONDS = 120;
+
+  /**
+   * Run every warm up task in parallel and wait for them to finish. A failed task
+   * only means the first matching request will be slower.
+   *
+   * @return true if every task completed, false otherwise.
+   */
+  public static boolean run() {
+    long start = System.nanoTime();
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    tasks.add(() -> {
+      scanResourceTypes();
+      return null;
+    });
+    File[] samples = new File(SAMPLE_FOLDER).listFiles((dir, name) -> name.endsWith(".json"));
+    if (samples != null) {
+      for (File sample : samples) {
+        tasks.add(() -> {
+          roundTrip(sample);
+          return null;
+        });
+      }
+    }
+    tasks.add(() -> {
+      warmRules();
+      return null;
+    });
+
+    ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    boolean success = true;
+    try {
+      for (Future<Void> future : executor.invokeAll(tasks, TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        try {
+          future.get();
+        } catch (CancellationException | ExecutionException e) {
+          logger.log(Level.WARNING, "Warmup::run:task did not complete", e);
+          success = false;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      success = false;
+    } finally {
+      executor.shutdownNow();
+    }
+    logger.info("Warmup::run:" + (success ? "completed" : "incomplete") + " in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    return success;
+  }
+
+  private static void scanResourceTypes() {
+    for (String resourceType : RESOURCE_TYPES)
+      App.getFhirContext().getResourceDefinition(resourceType);
+  }
+
+  /**
+   * Parse and encode a sample in both JSON and XML.
+   */
+  private static void roundTrip(File sample) throws IOException {
+    String json = new String(Files.readAllBytes(sample.toPath()));
+    IBaseResource resource = FhirUtils.getParser(RequestType.JSON).parseResource(json);
+    String xml = FhirUtils.xml(resource);
+    FhirUtils.json(FhirUtils.getParser(RequestType.XML).parseResource(xml));
+    logger.fine("Warmup::roundTrip:" + sample.getName());
+  }
+
+  /**
+   * Load the rule files and evaluate the sample Claim so the CQL engine and ELM
+   * reader are initialized.
+   */
+  private static void warmRules() throws IOException {
+    if (PriorAuthRule.preloadRules() == 0)
+      return;
+    String json = new String(Files.readAllBytes(new File(SAMPLE_FOLDER, SAMPLE_CLAIM).toPath()));
+    Bundle bundle = (Bundle) FhirUtils.getParser(RequestType.JSON).parseResource(json);
+    int sequence = FhirUtils.getClaimFromRequestBundle(bundle).getItemFirstRep().getSequence();
+    PriorAuthRule.computeDisposition(bundle, sequence);
+  }
+}
@@ -1,19 +1,26 @@
 package org.hl7.davinci.priorauth;
 
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.event.EventListener;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 import org.springframework.web.socket.messaging.SessionConnectEvent;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 import org.springframework.web.socket.messaging.SessionSubscribeEvent;
 
 /**
- * Spring websocket configuration with STOMP.
+ * Spring websocket configuration with STOMP. The broker and clients exchange
+ * heartbeats so dead connections are closed, and each session has a bounded
+ * send buffer so a slow client cannot hold an unbounded backlog.
  */
 @Configuration
 @EnableWebSocketMessageBroker
@@ -24,6 +31,23 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     static final Logger logger = PALogger.getLogger();
 
+    private static final int DEFAULT_HEARTBEAT_MILLIS = 10000;
+    private static final int DEFAULT_SEND_BUFFER_BYTES = 64 * 1024;
+    private static final int DEFAULT_SEND_TIME_LIMIT_MILLIS = 10000;
+    private static final int MESSAGE_SIZE_LIMIT_BYTES = 16 * 1024;
+    private static final long PRUNE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final ThreadPoolTaskScheduler heartbeatScheduler = new ThreadPoolTaskScheduler();
+
+    public WebSocketConfig() {
+        heartbeatScheduler.setPoolSize(1);
+        heartbeatScheduler.setThreadNamePrefix("wss-heartbeat-");
+        heartbeatScheduler.setDaemon(true);
+        heartbeatScheduler.initialize();
+        heartbeatScheduler.scheduleWithFixedDelay(WebSocketSessionRegistry::pruneStaleBindings,
+                new Date(System.currentTimeMillis() + PRUNE_MILLIS), PRUNE_MILLIS);
+    }
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint(ENDPOINT_CONNECT, SubscribeController.ENDPOINT_SUBSCRIBE)
@@ -34,10 +58,22 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
-        registry.enableSimpleBroker(SUBSCRIBE_USER_NOTIFICATION);
+        long heartbeat = PropertyProvider.getIntProperty("websocket_heartbeat_millis", DEFAULT_HEARTBEAT_MILLIS);
+        registry.enableSimpleBroker(SUBSCRIBE_USER_NOTIFICATION).setHeartbeatValue(new long[] { heartbeat, heartbeat })
+                .setTaskScheduler(heartbeatScheduler);
         registry.setUserDestinationPrefix(SUBSCRIBE_USER_PREFIX);
     }
 
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Clients only send bind messages so inbound messages can be small
+        int sendBufferBytes = PropertyProvider.getIntProperty("websocket_send_buffer_bytes", DEFAULT_SEND_BUFFER_BYTES);
+        int sendTimeLimitMillis = PropertyProvider.getIntProperty("websocket_send_time_limit_millis",
+                DEFAULT_SEND_TIME_LIMIT_MILLIS);
+        registration.setMessageSizeLimit(MESSAGE_SIZE_LIMIT_BYTES).setSendBufferSizeLimit(sendBufferBytes)
+                .setSendTimeLimit(sendTimeLimitMillis);
+    }
+
     @EventListener
     public void handleSubscribeEvent(SessionSubscribeEvent event) {
         logger.info("WebSocketConfig::handleSubscribeEvent:New subscription from " + event.getUser().getName());
@@ -47,12 +83,15 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     @EventListener
     public void handleConnectEvent(SessionConnectEvent event) {
         logger.info("WebSocketConfig::handleConnectEvent:New connection form " + event.getUser().getName());
+        WebSocketSessionRegistry.connected(event.getUser().getName(),
+                StompHeaderAccessor.wrap(event.getMessage()).getSessionId());
         logger.fine("WebSocketConfig::handleConnectEvent:Event: " + event);
     }
 
     @EventListener
     public void handleDisconnectEvent(SessionDisconnectEvent event) {
         logger.info("WebSocketConfig::handleDisconnectEvent:Disconnect from " + event.getUser().getName());
+        WebSocketSessionRegistry.disconnected(event.getUser().getName(), event.getSessionId());
         logger.fine("WebSocketConfig::handleDisconnectEvent:Event: " + event);
     }
-}
\ No newline at end of file
+}
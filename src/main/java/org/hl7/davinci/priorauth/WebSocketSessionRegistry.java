@@ -0,0 +1,90 @@
+package org.hl7.davinci.priorauth;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The web-socket users currently connected. Each connection is given its own
+ * random user (see AssignPrincipalHandshakeHandler) so a user which
+ * disconnects never comes back and the Subscriptions bound to it are unbound.
+ * The registry only holds the user and session ids so idle connections cost a
+ * single map entry each.
+ */
+public class WebSocketSessionRegistry {
+
+  static final Logger logger = PALogger.getLogger();
+
+  private static final Map<String, String> SESSIONS = new ConcurrentHashMap<String, String>();
+
+  /**
+   * Record a new connection.
+   *
+   * @param websocketId - the web-socket user.
+   * @param sessionId   - the STOMP session id.
+   */
+  public static void connected(String websocketId, String sessionId) {
+    if (websocketId != null && sessionId != null)
+      SESSIONS.put(websocketId, sessionId);
+  }
+
+  /**
+   * Record a closed connection and unbind the Subscriptions bound to it.
+   *
+   * @param websocketId - the web-socket user.
+   * @param sessionId   - the STOMP session id.
+   */
+  public static void disconnected(String websocketId, String sessionId) {
+    if (websocketId != null && sessionId != null && SESSIONS.remove(websocketId, sessionId))
+      unbind(websocketId);
+  }
+
+  /**
+   * Whether a web-socket user is connected.
+   *
+   * @param websocketId - the web-socket user.
+   * @return true if notifications to the user can be delivered.
+   */
+  public static boolean isConnected(String websocketId) {
+    return websocketId != null && SESSIONS.containsKey(websocketId);
+  }
+
+  /**
+   * The number of open connections.
+   *
+   * @return the number of connected web-socket users.
+   */
+  public static int size() {
+    return SESSIONS.size();
+  }
+
+  /**
+   * Unbind every Subscription bound to a web-socket user which is not connected,
+   * e.g. bindings left from before a restart or a missed disconnect.
+   *
+   * @return the number of web-socket users unbound.
+   */
+  public static int pruneStaleBindings() {
+    int pruned = 0;
+    for (String websocketId : SubscriptionRegistry.getWebsocketIds()) {
+      if (!isConnected(websocketId)) {
+        unbind(websocketId);
+        pruned++;
+      }
+    }
+    if (pruned > 0)
+      logger.log(Level.INFO, "WebSocketSessionRegistry::pruneStaleBindings:{0} web-sockets", pruned);
+    return pruned;
+  }
+
+  private static void unbind(String websocketId) {
+    Set<String> subscriptionIds = SubscriptionRegistry.unbindWebsocket(websocketId);
+    if (!subscriptionIds.isEmpty()) {
+      App.getDB().unbindWebsocket(websocketId);
+      logger.log(Level.FINE, "WebSocketSessionRegistry::unbind websocketId={0} subscriptions={1}",
+          new Object[] { websocketId, subscriptionIds });
+    }
+  }
+}
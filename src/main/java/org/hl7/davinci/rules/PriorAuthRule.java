@@ -5,6 +5,7 @@ import java.nio.file.Files;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,6 +40,12 @@ public class PriorAuthRule {
         CODE_SYSTEM_SHORT_NAME_TO_FULL_NAME = Collections.unmodifiableMap(tempMap);
     }
 
+    /**
+     * Contents of the ELM rule files by path. The files only change through
+     * /debug/ConvertAll which clears the cache.
+     */
+    private static final Map<String, String> ELM_CACHE = new ConcurrentHashMap<String, String>();
+
     /**
      * Enum to represent the different CQL rule names. All of the prior auth rule
      * files should include all of these define expressions
@@ -67,7 +74,8 @@ public class PriorAuthRule {
      * @return the disposition of Granted, Pending, or Denied
      */
     public static Disposition computeDisposition(Bundle bundle, int sequence) {
-        logger.info("PriorAuthRule::computeDisposition:Bundle/" + FhirUtils.getIdFromResource(bundle) + "/" + sequence);
+        logger.log(Level.INFO, "PriorAuthRule::computeDisposition:Bundle/{0}/{1}",
+                new Object[] { FhirUtils.getIdFromResource(bundle), sequence });
 
         Claim claim = FhirUtils.getClaimFromRequestBundle(bundle);
         ItemComponent claimItem = claim.getItem().stream().filter(item -> item.getSequence() == sequence).findFirst()
@@ -78,7 +86,7 @@ public class PriorAuthRule {
             logger.warning("PriorAuthRule::getRuleFileFromItem:Code does not exist in rules table");
             disposition = Disposition.PENDING;
         } else {
-            String elm = CqlUtils.readFile(elmFile);
+            String elm = readElm(elmFile);
             Context context = CqlUtils.createBundleContextFromElm(elm, bundle, App.getFhirContext(),
                     App.getModelResolver());
 
@@ -90,7 +98,7 @@ public class PriorAuthRule {
                 disposition = Disposition.DENIED;
         }
 
-        logger.info("PriorAuthRule::computeDisposition:" + disposition.value());
+        logger.log(Level.INFO, "PriorAuthRule::computeDisposition:{0}", disposition.value());
 
         return disposition;
     }
@@ -153,6 +161,46 @@ public class PriorAuthRule {
         return true;
     }
 
+    /**
+     * Read every ELM rule file in the CDS Library into the cache so the first
+     * evaluation of each rule does not wait on the disk.
+     * 
+     * @return the number of rule files loaded
+     */
+    public static int preloadRules() {
+        String cdsLibraryPath = PropertyProvider.getProperty("CDS_library");
+        File[] topics = new File(cdsLibraryPath).listFiles();
+        if (topics == null) {
+            logger.warning("PriorAuthRule::preloadRules:CDS Library not found at " + cdsLibraryPath);
+            return 0;
+        }
+
+        int loaded = 0;
+        for (File topic : topics) {
+            String topicName = topic.getName();
+            if (!topic.isDirectory() || topicName.startsWith(".") || topicName.equalsIgnoreCase("Shared"))
+                continue;
+            for (File file : topic.listFiles()) {
+                if (file.getName().endsWith("PriorAuthRule.elm.xml")
+                        && readElm(cdsLibraryPath + topicName + "/" + file.getName()) != null)
+                    loaded++;
+            }
+        }
+        logger.fine("PriorAuthRule::preloadRules:Loaded " + loaded + " rule files");
+        return loaded;
+    }
+
+    /**
+     * Drop the cached ELM so rule files are read again on next use
+     */
+    public static void clearElmCache() {
+        ELM_CACHE.clear();
+    }
+
+    private static String readElm(String elmFile) {
+        return ELM_CACHE.computeIfAbsent(elmFile, CqlUtils::readFile);
+    }
+
     /**
      * Execute the rule on a given bundle and determine the disposition
      * 
@@ -160,7 +208,7 @@ public class PriorAuthRule {
      * @return true if the PriorAuth is granted, false otherwise
      */
     private static boolean executeRule(Context context, Rule rule) {
-        logger.info("PriorAuthRule::executing rule:" + rule.value());
+        logger.log(Level.FINE, "PriorAuthRule::executing rule:{0}", rule.value());
         Object rawValue = CqlUtils.executeExpression(context, rule.value());
 
         try {
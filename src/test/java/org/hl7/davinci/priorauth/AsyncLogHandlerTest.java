@@ -0,0 +1,89 @@
+package org.hl7.davinci.priorauth;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncLogHandlerTest {
+
+  /**
+   * Handler which keeps the formatted records
+   */
+  private static class CapturingHandler extends Handler {
+    final List<String> lines = new CopyOnWriteArrayList<String>();
+
+    CapturingHandler() {
+      setFormatter(new KeyValueFormatter());
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+      lines.add(getFormatter().format(record));
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  @Test
+  public void testPublish() {
+    CapturingHandler capture = new CapturingHandler();
+    AsyncLogHandler handler = new AsyncLogHandler(16, capture);
+    Map<String, Object> data = new HashMap<String, Object>();
+    data.put("id", "1");
+    LogRecord record = new LogRecord(Level.INFO, "Database::write table={0} data={1}");
+    record.setParameters(new Object[] { "Claim", data });
+    handler.publish(record);
+
+    // Changing a parameter after logging does not change the message
+    data.put("id", "2");
+    handler.flush();
+
+    Assert.assertEquals(1, capture.lines.size());
+    Assert.assertTrue(capture.lines.get(0).contains("level=INFO"));
+    Assert.assertTrue(capture.lines.get(0).contains("msg=\"Database::write table=Claim data={id=1}\""));
+    handler.close();
+  }
+
+  @Test
+  public void testLevel() {
+    CapturingHandler capture = new CapturingHandler();
+    AsyncLogHandler handler = new AsyncLogHandler(16, capture);
+    handler.setLevel(Level.INFO);
+    handler.publish(new LogRecord(Level.FINE, "hidden"));
+    handler.publish(new LogRecord(Level.WARNING, "shown"));
+    handler.flush();
+
+    Assert.assertEquals(1, capture.lines.size());
+    Assert.assertTrue(capture.lines.get(0).contains("msg=\"shown\""));
+    handler.close();
+  }
+
+  @Test
+  public void testFormatterEscapes() {
+    LogRecord record = new LogRecord(Level.WARNING, "line \"one\"\nline two");
+    String line = new KeyValueFormatter().format(record);
+    Assert.assertTrue(line.contains("msg=\"line \\\"one\\\"\\nline two\""));
+    Assert.assertEquals(1, line.trim().split("\n").length);
+  }
+
+  @Test
+  public void testWithoutResource() {
+    Map<String, Object> data = new HashMap<String, Object>();
+    data.put("id", "1");
+    data.put("resource", "{\"resourceType\":\"Claim\"}");
+    Assert.assertEquals("{id=1}", PALogger.withoutResource(data).toString());
+  }
+}
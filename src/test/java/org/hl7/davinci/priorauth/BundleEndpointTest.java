@@ -46,6 +46,7 @@ public class BundleEndpointTest {
   private static ResultMatcher cors = MockMvcResultMatchers.header().string("Access-Control-Allow-Origin", "*");
   private static ResultMatcher ok = MockMvcResultMatchers.status().isOk();
   private static ResultMatcher notFound = MockMvcResultMatchers.status().isNotFound();
+  private static ResultMatcher notModified = MockMvcResultMatchers.status().isNotModified();
 
   @BeforeClass
   public static void setup() throws FileNotFoundException {
@@ -90,6 +91,48 @@ public class BundleEndpointTest {
     Assert.assertTrue(result.isSuccessful());
   }
 
+  @Test
+  public void searchBundlesSummaryCount() throws Exception {
+    // Test that _summary=count returns only the total
+    DefaultMockMvcBuilder builder = MockMvcBuilders.webAppContextSetup(wac);
+    MockMvc mockMvc = builder.build();
+    MockHttpServletRequestBuilder requestBuilder = MockMvcRequestBuilders
+        .get("/Bundle?patient.identifier=1&_summary=count").header("Accept", "application/fhir+json");
+    MvcResult mvcresult = mockMvc.perform(requestBuilder).andExpect(ok).andReturn();
+
+    String body = mvcresult.getResponse().getContentAsString();
+    Bundle bundle = (Bundle) App.getFhirContext().newJsonParser().parseResource(body);
+    Map<String, Object> constraintMap = new HashMap<String, Object>();
+    constraintMap.put("patient", "1");
+    Assert.assertEquals(App.getDB().search(Table.BUNDLE, constraintMap).getTotal(), bundle.getTotal());
+    Assert.assertTrue(bundle.getTotal() > 0);
+    Assert.assertEquals(0, bundle.getEntry().size());
+
+    // Test an unknown _summary is rejected
+    requestBuilder = MockMvcRequestBuilders.get("/Bundle?patient.identifier=1&_summary=everything")
+        .header("Accept", "application/fhir+json");
+    mockMvc.perform(requestBuilder).andExpect(MockMvcResultMatchers.status().isBadRequest());
+  }
+
+  @Test
+  public void searchBundlesElements() throws Exception {
+    // Test that _elements limits the elements of the returned resources
+    DefaultMockMvcBuilder builder = MockMvcBuilders.webAppContextSetup(wac);
+    MockMvc mockMvc = builder.build();
+    MockHttpServletRequestBuilder requestBuilder = MockMvcRequestBuilders
+        .get("/Bundle?patient.identifier=1&_elements=type").header("Accept", "application/fhir+json");
+    MvcResult mvcresult = mockMvc.perform(requestBuilder).andExpect(ok).andReturn();
+
+    String body = mvcresult.getResponse().getContentAsString();
+    Bundle bundle = (Bundle) App.getFhirContext().newJsonParser().parseResource(body);
+    Assert.assertTrue(bundle.hasEntry());
+    for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+      Bundle submitted = (Bundle) entry.getResource();
+      Assert.assertTrue(submitted.hasType());
+      Assert.assertFalse(submitted.hasEntry());
+    }
+  }
+
   @Test
   public void searchBundlesXml() throws Exception {
     // Test that we can GET /fhir/Bundle.
@@ -165,6 +208,32 @@ public class BundleEndpointTest {
     Assert.assertTrue(result.isSuccessful());
   }
 
+  @Test
+  public void getBundleNotModified() throws Exception {
+    // Test that a conditional read of an unchanged Bundle returns 304
+    DefaultMockMvcBuilder builder = MockMvcBuilders.webAppContextSetup(wac);
+    MockMvc mockMvc = builder.build();
+    MockHttpServletRequestBuilder requestBuilder = MockMvcRequestBuilders
+        .get("/Bundle?identifier=minimal&patient.identifier=1").header("Accept", "application/fhir+json")
+        .header("Access-Control-Request-Method", "GET").header("Origin", "http://localhost:" + port);
+    MvcResult mvcresult = mockMvc.perform(requestBuilder).andExpect(ok).andReturn();
+    String etag = mvcresult.getResponse().getHeader("ETag");
+    Assert.assertNotNull(etag);
+
+    requestBuilder = MockMvcRequestBuilders.get("/Bundle?identifier=minimal&patient.identifier=1")
+        .header("Accept", "application/fhir+json").header("If-None-Match", etag)
+        .header("Access-Control-Request-Method", "GET").header("Origin", "http://localhost:" + port);
+    mvcresult = mockMvc.perform(requestBuilder).andExpect(notModified).andExpect(cors).andReturn();
+    Assert.assertEquals(etag, mvcresult.getResponse().getHeader("ETag"));
+    Assert.assertEquals(0, mvcresult.getResponse().getContentLength());
+
+    // A different format is a different representation
+    requestBuilder = MockMvcRequestBuilders.get("/Bundle?identifier=minimal&patient.identifier=1")
+        .header("Accept", "application/fhir+xml").header("If-None-Match", etag)
+        .header("Access-Control-Request-Method", "GET").header("Origin", "http://localhost:" + port);
+    mockMvc.perform(requestBuilder).andExpect(ok);
+  }
+
   @Test
   public void getBundleThatDoesNotExist() throws Exception {
     // Test that non-existent Bundle returns 404.
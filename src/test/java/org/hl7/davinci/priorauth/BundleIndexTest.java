@@ -0,0 +1,70 @@
+package org.hl7.davinci.priorauth;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BundleIndexTest {
+
+  private Bundle bundle;
+
+  @Before
+  public void setup() throws IOException {
+    Path fixture = Paths.get("src/test/resources").resolve("bundle-request.json");
+    String fixtureStr = new String(Files.readAllBytes(fixture));
+    bundle = (Bundle) App.getFhirContext().newJsonParser().parseResource(fixtureStr);
+  }
+
+  @Test
+  public void testIndexIsCached() {
+    Assert.assertSame(BundleIndex.of(bundle), BundleIndex.of(bundle));
+  }
+
+  @Test
+  public void testGet() {
+    BundleEntryComponent entry = BundleIndex.of(bundle).get(ResourceType.Organization, "3");
+    Assert.assertNotNull(entry);
+    Assert.assertEquals("http://example.org/fhir/Organization/3", entry.getFullUrl());
+    Assert.assertNull(BundleIndex.of(bundle).get(ResourceType.Organization, "id-does-not-exist"));
+    Assert.assertNull(BundleIndex.of(bundle).get(ResourceType.Observation, "1"));
+  }
+
+  @Test
+  public void testResolve() {
+    BundleIndex index = BundleIndex.of(bundle);
+    Assert.assertEquals(ResourceType.Patient, index.resolve(new Reference("Patient/1")).getResource().getResourceType());
+    Assert.assertNotNull(index.resolve(new Reference("http://example.org/fhir/Location/1")));
+    Assert.assertNotNull(index.resolve(new Reference("http://other.org/fhir/Location/1")));
+    Assert.assertNull(index.resolve(new Reference("NotAType/1")));
+    Assert.assertNull(index.resolve(new Reference("urn:uuid:1")));
+  }
+
+  @Test
+  public void testChangedBundle() {
+    BundleIndex index = BundleIndex.of(bundle);
+
+    // Changed ids are found once the index is invalidated
+    bundle.getEntry().get(0).getResource().setId("changed");
+    Assert.assertNull(index.get(ResourceType.Claim, "changed"));
+    BundleIndex.invalidate(bundle);
+    Assert.assertNotSame(index, BundleIndex.of(bundle));
+    Assert.assertNotNull(BundleIndex.of(bundle).get(ResourceType.Claim, "changed"));
+    Assert.assertNull(BundleIndex.of(bundle).get(ResourceType.Claim, "1"));
+
+    // Added entries are found
+    Observation observation = new Observation();
+    observation.setId("added");
+    bundle.addEntry().setResource(observation);
+    Assert.assertNotNull(BundleIndex.of(bundle).get(ResourceType.Observation, "added"));
+  }
+}
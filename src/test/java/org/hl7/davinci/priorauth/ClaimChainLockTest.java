@@ -0,0 +1,50 @@
+package org.hl7.davinci.priorauth;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClaimChainLockTest {
+
+  @Test
+  public void testSamePatientSharesLock() {
+    Assert.assertSame(ClaimChainLock.forPatient("pat013"), ClaimChainLock.forPatient("pat013"));
+  }
+
+  @Test
+  public void testLockIsReentrant() {
+    Lock lock = ClaimChainLock.forPatient("pat013");
+    lock.lock();
+    try {
+      Assert.assertTrue(ClaimChainLock.forPatient("pat013").tryLock());
+      ClaimChainLock.forPatient("pat013").unlock();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Test
+  public void testLockExcludesOtherThreads() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Lock lock = ClaimChainLock.forPatient("pat013");
+    lock.lock();
+    try {
+      // Another thread is unable to acquire the lock for the same patient
+      Future<Boolean> acquired = executor.submit(() -> {
+        Lock other = ClaimChainLock.forPatient("pat013");
+        boolean result = other.tryLock();
+        if (result)
+          other.unlock();
+        return result;
+      });
+      Assert.assertFalse(acquired.get());
+    } finally {
+      lock.unlock();
+      executor.shutdown();
+    }
+  }
+}
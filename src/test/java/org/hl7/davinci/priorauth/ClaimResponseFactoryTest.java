@@ -14,6 +14,7 @@ import org.hl7.davinci.priorauth.FhirUtils.ReviewAction;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Claim;
 import org.hl7.fhir.r4.model.ClaimResponse;
+import org.hl7.fhir.r4.model.ResourceType;
 import org.hl7.fhir.r4.model.ClaimResponse.ClaimResponseStatus;
 import org.hl7.fhir.r4.model.ClaimResponse.RemittanceOutcome;
 import org.junit.After;
@@ -109,6 +110,18 @@ public class ClaimResponseFactoryTest {
         validateClaimResponse(disposition, reviewAction);
     }
 
+    @Test
+    public void referencedEntries() {
+        // Only the resources referenced by the ClaimResponse are included
+        Bundle responseBundle = ClaimResponseFactory.generateClaimResponse(bundle, claim, id, Disposition.GRANTED,
+                status, patient);
+        Assert.assertEquals(3, responseBundle.getEntry().size());
+        Assert.assertEquals(ResourceType.ClaimResponse,
+                responseBundle.getEntry().get(0).getResource().getResourceType());
+        Assert.assertEquals(ResourceType.Patient, responseBundle.getEntry().get(1).getResource().getResourceType());
+        Assert.assertEquals(ResourceType.Practitioner, responseBundle.getEntry().get(2).getResource().getResourceType());
+    }
+
     private void validateClaimResponse(Disposition disposition, ReviewAction reviewAction) {
         // Generate and store the response
         Bundle responseBundle = ClaimResponseFactory.generateAndStoreClaimResponse(bundle, claim, id, disposition,
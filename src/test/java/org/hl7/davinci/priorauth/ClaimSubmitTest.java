@@ -5,6 +5,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -175,6 +176,47 @@ public class ClaimSubmitTest {
     Assert.assertTrue(result.isSuccessful());
   }
 
+  @Test
+  public void submitDuplicateClaim() throws Exception {
+    // Test that resubmitting an identical Bundle returns the same ClaimResponse
+    String firstId = submitAndGetResponseId(completeClaim, null);
+    String secondId = submitAndGetResponseId(completeClaim, null);
+    Assert.assertEquals(firstId, secondId);
+  }
+
+  @Test
+  public void submitWithIdempotencyKey() throws Exception {
+    // Test that requests sharing an Idempotency-Key return the same ClaimResponse
+    String idempotencyKey = "submitWithIdempotencyKey-" + System.currentTimeMillis();
+    String firstId = submitAndGetResponseId(completeClaim, idempotencyKey);
+    String secondId = submitAndGetResponseId(completeClaim, idempotencyKey);
+    Assert.assertEquals(firstId, secondId);
+
+    // A different key is processed as a new request
+    String thirdId = submitAndGetResponseId(completeClaim, idempotencyKey + "-other");
+    Assert.assertNotEquals(firstId, thirdId);
+  }
+
+  @Test
+  public void submitWithReusedIdempotencyKey() throws Exception {
+    // Test that an Idempotency-Key reused for a different Bundle is rejected
+    String idempotencyKey = "submitWithReusedIdempotencyKey-" + System.currentTimeMillis();
+    submitAndGetResponseId(completeClaim, idempotencyKey);
+
+    Bundle different = (Bundle) App.getFhirContext().newJsonParser().parseResource(completeClaim);
+    different.setTimestamp(new Date());
+    MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(wac).build();
+    MockHttpServletRequestBuilder requestBuilder = MockMvcRequestBuilders.post("/Claim/$submit")
+        .content(FhirUtils.json(different)).header("Content-Type", "application/fhir+json")
+        .header(IdempotencyCache.IDEMPOTENCY_KEY_HEADER, idempotencyKey);
+    MvcResult mvcresult = mockMvc.perform(requestBuilder)
+        .andExpect(MockMvcResultMatchers.status().isUnprocessableEntity()).andReturn();
+
+    String responseBody = mvcresult.getResponse().getContentAsString();
+    OperationOutcome error = (OperationOutcome) App.getFhirContext().newJsonParser().parseResource(responseBody);
+    Assert.assertEquals(OperationOutcome.IssueType.CONFLICT, error.getIssueFirstRep().getCode());
+  }
+
   @Test
   public void submitEmptyBundle() throws Exception {
     checkErrors(emptyBundle);
@@ -190,6 +232,23 @@ public class ClaimSubmitTest {
     checkErrors(bundleWithOnlyClaim);
   }
 
+  private String submitAndGetResponseId(String body, String idempotencyKey) throws Exception {
+    DefaultMockMvcBuilder builder = MockMvcBuilders.webAppContextSetup(wac);
+    MockMvc mockMvc = builder.build();
+    MockHttpServletRequestBuilder requestBuilder = MockMvcRequestBuilders.post("/Claim/$submit").content(body)
+        .header("Content-Type", "application/fhir+json").header("Access-Control-Request-Method", "POST")
+        .header("Origin", "http://localhost:" + port);
+    if (idempotencyKey != null)
+      requestBuilder.header(IdempotencyCache.IDEMPOTENCY_KEY_HEADER, idempotencyKey);
+
+    MvcResult mvcresult = mockMvc.perform(requestBuilder).andExpect(created).andReturn();
+    String responseBody = mvcresult.getResponse().getContentAsString();
+    Bundle bundleResponse = (Bundle) App.getFhirContext().newJsonParser().parseResource(responseBody);
+    String id = FhirUtils.getIdFromResource(bundleResponse);
+    resourceIds.add(id);
+    return id;
+  }
+
   private void checkErrors(String body) throws Exception {
     // Test that we can POST /fhir/Claim/$submit
     DefaultMockMvcBuilder builder = MockMvcBuilders.webAppContextSetup(wac);
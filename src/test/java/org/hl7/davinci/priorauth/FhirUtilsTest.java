@@ -14,6 +14,7 @@ import org.hl7.fhir.r4.model.Claim;
 import org.hl7.fhir.r4.model.ClaimResponse;
 import org.hl7.fhir.r4.model.Coverage;
 import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.ResourceType;
 import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.r4.model.Bundle.BundleType;
@@ -105,6 +106,59 @@ public class FhirUtilsTest {
         Assert.assertNull(bec);
     }
 
+    @Test
+    public void testGetEntryComponentFromReference() {
+        // Validate relative references and fullUrls resolve to the entry
+        BundleEntryComponent bec = FhirUtils.getEntryComponentFromReference(bundleRequest, new Reference("Patient/1"));
+        Assert.assertNotNull(bec);
+        Assert.assertEquals(ResourceType.Patient, bec.getResource().getResourceType());
+        bec = FhirUtils.getEntryComponentFromReference(bundleRequest,
+                new Reference("http://example.org/fhir/Organization/3"));
+        Assert.assertNotNull(bec);
+        Assert.assertEquals("3", FhirUtils.getIdFromResource(bec.getResource()));
+
+        // Validate unresolvable references are null
+        Assert.assertNull(FhirUtils.getEntryComponentFromReference(bundleRequest, new Reference("Patient/2")));
+        Assert.assertNull(FhirUtils.getEntryComponentFromReference(bundleRequest, new Reference("NotAType/1")));
+        Assert.assertNull(FhirUtils.getEntryComponentFromReference(bundleRequest, new Reference()));
+    }
+
+    @Test
+    public void testGetParser() {
+        // Validate parsers are reused within a thread
+        Assert.assertSame(FhirUtils.getParser(RequestType.JSON), FhirUtils.getParser(RequestType.JSON));
+        Assert.assertSame(FhirUtils.getParser(RequestType.XML, true), FhirUtils.getParser(RequestType.XML, true));
+        Assert.assertNotSame(FhirUtils.getParser(RequestType.JSON), FhirUtils.getParser(RequestType.JSON, true));
+
+        // Validate output is compact unless pretty printing is requested
+        Assert.assertFalse(FhirUtils.json(claim).contains("\n"));
+        Assert.assertTrue(FhirUtils.json(claim, true).contains("\n"));
+        Assert.assertFalse(FhirUtils.xml(claim).contains("\n"));
+        Assert.assertTrue(FhirUtils.xml(claim, true).contains("\n"));
+    }
+
+    @Test
+    public void testGetPatientIdentifierFromDifferentialBundle() {
+        App.initializeAppDB();
+        Map<String, Object> dataMap = new HashMap<String, Object>();
+        dataMap.put("id", "claim1");
+        dataMap.put("patient", "pat013");
+        dataMap.put("status", "active");
+        dataMap.put("resource", claim);
+        App.getDB().write(Table.CLAIM, dataMap);
+
+        try {
+            // The Patient is not in the differential Bundle so it comes from the chain
+            Bundle differential = new Bundle();
+            differential.getMeta().addSecurity(FhirUtils.SECURITY_SYSTEM_URL, FhirUtils.SECURITY_SUBSETTED,
+                    FhirUtils.SECURITY_SUBSETTED);
+            differential.addEntry().setResource(claimUpdate);
+            Assert.assertEquals("pat013", FhirUtils.getPatientIdentifierFromBundle(differential));
+        } finally {
+            App.getDB().delete(Table.CLAIM, "claim1", "pat013");
+        }
+    }
+
     @Test
     public void testGetRelatedClaimComponent() {
         Assert.assertEquals("claim1", FhirUtils.getRelatedComponentId(claimUpdate));
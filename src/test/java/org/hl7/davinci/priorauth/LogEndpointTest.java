@@ -0,0 +1,67 @@
+package org.hl7.davinci.priorauth;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+
+public class LogEndpointTest {
+
+  private static long tailStart(String contents, int lines) throws IOException {
+    Path file = Files.createTempFile("priorauth", ".log");
+    try {
+      Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        return LogEndpoint.findTailStart(channel, lines);
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void testFindTailStart() throws IOException {
+    String log = "one\ntwo\nthree\n";
+    Assert.assertEquals(log.indexOf("three"), tailStart(log, 1));
+    Assert.assertEquals(log.indexOf("two"), tailStart(log, 2));
+    Assert.assertEquals(0, tailStart(log, 3));
+    Assert.assertEquals(0, tailStart(log, 10));
+    Assert.assertEquals(log.length(), tailStart(log, 0));
+
+    // The last line does not need a newline
+    Assert.assertEquals(4, tailStart("one\ntwo", 1));
+    Assert.assertEquals(0, tailStart("", 5));
+  }
+
+  @Test
+  public void testFindTailStartAcrossChunks() throws IOException {
+    StringBuilder log = new StringBuilder();
+    for (int i = 0; i < 5000; i++)
+      log.append("line ").append(i).append('\n');
+    String contents = log.toString();
+    Assert.assertEquals(contents.indexOf("line 4000\n"), tailStart(contents, 1000));
+  }
+
+  @Test
+  public void testFollowersAreCapped() throws InterruptedException {
+    LogEndpoint endpoint = new LogEndpoint();
+    for (int i = 0; i < LogEndpoint.MAX_FOLLOWERS; i++)
+      Assert.assertEquals(HttpStatus.OK, endpoint.followLog(0, 1).getStatusCode());
+    Assert.assertEquals(HttpStatus.SERVICE_UNAVAILABLE, endpoint.followLog(0, 1).getStatusCode());
+
+    // Slots are released once the followers finish
+    long deadline = System.currentTimeMillis() + 10000;
+    HttpStatus status;
+    do {
+      Thread.sleep(100);
+      status = endpoint.followLog(0, 1).getStatusCode();
+    } while (status != HttpStatus.OK && System.currentTimeMillis() < deadline);
+    Assert.assertEquals(HttpStatus.OK, status);
+  }
+}
@@ -1,5 +1,10 @@
 package org.hl7.davinci.priorauth;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
@@ -107,4 +112,62 @@ public class MetadataTest {
     // TODO: a bug was causing this to fail when it is validated
     // Assert.assertTrue(result.isSuccessful());
   }
+
+  @Test
+  public void getMetadataNotModified() throws Exception {
+    DefaultMockMvcBuilder builder = MockMvcBuilders.webAppContextSetup(wac);
+    MockMvc mockMvc = builder.build();
+    MockHttpServletRequestBuilder requestBuilder = MockMvcRequestBuilders.get("/metadata").header("Accept",
+        "application/fhir+json");
+
+    // Test the response has an ETag
+    MvcResult mvcresult = mockMvc.perform(requestBuilder).andExpect(ok).andReturn();
+    String etag = mvcresult.getResponse().getHeader("ETag");
+    Assert.assertNotNull(etag);
+
+    // Test the same ETag is returned with a 304 and no body
+    requestBuilder = MockMvcRequestBuilders.get("/metadata").header("Accept", "application/fhir+json")
+        .header("If-None-Match", etag);
+    mvcresult = mockMvc.perform(requestBuilder).andExpect(MockMvcResultMatchers.status().isNotModified())
+        .andReturn();
+    Assert.assertEquals(etag, mvcresult.getResponse().getHeader("ETag"));
+    Assert.assertEquals(0, mvcresult.getResponse().getContentLength());
+
+    // Test the pretty printed and XML representations have their own ETag
+    requestBuilder = MockMvcRequestBuilders.get("/metadata?_pretty=true").header("Accept", "application/fhir+json");
+    mvcresult = mockMvc.perform(requestBuilder).andExpect(ok).andReturn();
+    Assert.assertNotEquals(etag, mvcresult.getResponse().getHeader("ETag"));
+    requestBuilder = MockMvcRequestBuilders.get("/metadata").header("Accept", "application/fhir+xml");
+    mvcresult = mockMvc.perform(requestBuilder).andExpect(ok).andReturn();
+    Assert.assertNotEquals(etag, mvcresult.getResponse().getHeader("ETag"));
+  }
+
+  @Test
+  public void getMetadataGzip() throws Exception {
+    DefaultMockMvcBuilder builder = MockMvcBuilders.webAppContextSetup(wac);
+    MockMvc mockMvc = builder.build();
+    MockHttpServletRequestBuilder requestBuilder = MockMvcRequestBuilders.get("/metadata")
+        .header("Accept", "application/fhir+json").header("Accept-Encoding", "gzip, deflate");
+
+    // Test the response is gzip encoded and varies by encoding
+    MvcResult mvcresult = mockMvc.perform(requestBuilder).andExpect(ok).andReturn();
+    Assert.assertEquals("gzip", mvcresult.getResponse().getHeader("Content-Encoding"));
+    Assert.assertEquals("Accept-Encoding", mvcresult.getResponse().getHeader("Vary"));
+    String etag = mvcresult.getResponse().getHeader("ETag");
+
+    // Test the body is a JSON Capability Statement
+    GZIPInputStream gzipStream = new GZIPInputStream(
+        new ByteArrayInputStream(mvcresult.getResponse().getContentAsByteArray()));
+    CapabilityStatement capabilityStatement = (CapabilityStatement) App.getFhirContext().newJsonParser()
+        .parseResource(new InputStreamReader(gzipStream, StandardCharsets.UTF_8));
+    Assert.assertNotNull(capabilityStatement);
+
+    // Test gzip is not used when it is refused and the identity encoding has its
+    // own ETag
+    requestBuilder = MockMvcRequestBuilders.get("/metadata").header("Accept", "application/fhir+json")
+        .header("Accept-Encoding", "gzip;q=0");
+    mvcresult = mockMvc.perform(requestBuilder).andExpect(ok).andReturn();
+    Assert.assertNull(mvcresult.getResponse().getHeader("Content-Encoding"));
+    Assert.assertNotEquals(etag, mvcresult.getResponse().getHeader("ETag"));
+  }
 }
@@ -0,0 +1,57 @@
+package org.hl7.davinci.priorauth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NotificationBatcherTest {
+
+  private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+  private NotificationBatcher batcher(int batchSize, long lingerMillis) {
+    return new NotificationBatcher(batchSize, lingerMillis,
+        (websocketId, subscriptionIds) -> messages.add(websocketId + " " + String.join(",", subscriptionIds)));
+  }
+
+  @Test
+  public void testCoalescePerWebsocket() throws Exception {
+    NotificationBatcher batcher = batcher(50, 200);
+    CompletableFuture<Boolean> first = batcher.add("user-1", "a");
+    CompletableFuture<Boolean> second = batcher.add("user-1", "b");
+    CompletableFuture<Boolean> repeated = batcher.add("user-1", "a");
+    CompletableFuture<Boolean> other = batcher.add("user-2", "c");
+
+    for (CompletableFuture<Boolean> future : Arrays.asList(first, second, repeated, other))
+      Assert.assertTrue(future.get(5, TimeUnit.SECONDS));
+    Assert.assertEquals(2, messages.size());
+    Assert.assertTrue(messages.contains("user-1 a,b"));
+    Assert.assertTrue(messages.contains("user-2 c"));
+  }
+
+  @Test
+  public void testFullBatchSentWithoutLinger() throws Exception {
+    NotificationBatcher batcher = batcher(2, TimeUnit.MINUTES.toMillis(10));
+    CompletableFuture<Boolean> first = batcher.add("user-1", "a");
+    CompletableFuture<Boolean> second = batcher.add("user-1", "b");
+    Assert.assertTrue(first.get(5, TimeUnit.SECONDS));
+    Assert.assertTrue(second.get(5, TimeUnit.SECONDS));
+    Assert.assertEquals(Collections.singletonList("user-1 a,b"), messages);
+
+    // The next notification starts a new batch
+    Assert.assertFalse(batcher.add("user-1", "c").isDone());
+  }
+
+  @Test
+  public void testSendFailure() throws Exception {
+    NotificationBatcher batcher = new NotificationBatcher(50, 0, (websocketId, subscriptionIds) -> {
+      throw new IllegalStateException("broker unavailable");
+    });
+    Assert.assertFalse(batcher.add("user-1", "a").get(5, TimeUnit.SECONDS));
+  }
+}
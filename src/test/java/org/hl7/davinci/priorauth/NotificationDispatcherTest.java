@@ -0,0 +1,190 @@
+package org.hl7.davinci.priorauth;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.sql.Timestamp;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.hl7.davinci.priorauth.Database.Table;
+import org.hl7.fhir.r4.model.Subscription;
+import org.hl7.fhir.r4.model.Subscription.SubscriptionChannelType;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class NotificationDispatcherTest {
+
+  private static final String SUBSCRIPTION_ID = "outbox-subscription";
+  private static final String OTHER_SUBSCRIPTION_ID = "outbox-other-subscription";
+
+  private static HttpServer server;
+  private static final AtomicInteger active = new AtomicInteger();
+  private static final AtomicInteger maxConcurrent = new AtomicInteger();
+
+  @BeforeClass
+  public static void setupClass() throws IOException {
+    App.initializeAppDB();
+    // A rest-hook endpoint which is slow to fail
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/error", exchange -> {
+      maxConcurrent.accumulateAndGet(active.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(200);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      active.decrementAndGet();
+      exchange.sendResponseHeaders(500, -1);
+      exchange.close();
+    });
+    server.start();
+  }
+
+  @AfterClass
+  public static void cleanupClass() {
+    server.stop(0);
+  }
+
+  @After
+  public void cleanup() {
+    // Deleting the Subscription cascades to its notifications
+    App.getDB().delete(Table.SUBSCRIPTION, SUBSCRIPTION_ID);
+    SubscriptionRegistry.remove(SUBSCRIPTION_ID);
+    App.getDB().delete(Table.SUBSCRIPTION, OTHER_SUBSCRIPTION_ID);
+    App.getDB().delete(Table.BUNDLE, "outbox-bundle");
+  }
+
+  @Test
+  public void testBackoff() {
+    for (int attempts = 1; attempts <= 30; attempts++) {
+      long full = Math.min(300000, 1000L << Math.min(attempts - 1, 20));
+      long delay = NotificationDispatcher.getBackoffMillis(attempts);
+      Assert.assertTrue(delay >= full / 2);
+      Assert.assertTrue(delay <= full);
+    }
+  }
+
+  @Test
+  public void testWriteAllRollsBack() {
+    Map<String, Object> bundleMap = new HashMap<String, Object>();
+    bundleMap.put("id", "outbox-bundle");
+    bundleMap.put("patient", "pat013");
+    List<Map.Entry<Table, Map<String, Object>>> rows = new ArrayList<Map.Entry<Table, Map<String, Object>>>();
+    rows.add(new AbstractMap.SimpleEntry<Table, Map<String, Object>>(Table.BUNDLE, bundleMap));
+    // The Subscription does not exist so the notification violates the foreign key
+    rows.add(NotificationDispatcher.newNotification(SUBSCRIPTION_ID, "outbox-response"));
+
+    Assert.assertFalse(App.getDB().writeAll(rows));
+    Assert.assertNull(App.getDB().readString(Table.BUNDLE, Collections.singletonMap("id", "outbox-bundle"), "id"));
+  }
+
+  private static void writeSubscription(String id) {
+    Map<String, Object> subscriptionMap = new HashMap<String, Object>();
+    subscriptionMap.put("id", id);
+    subscriptionMap.put("patient", "pat013");
+    subscriptionMap.put("status", "active");
+    Assert.assertTrue(App.getDB().write(Table.SUBSCRIPTION, subscriptionMap));
+  }
+
+  private static List<String> readDue(String subscriptionId) {
+    List<String> due = new ArrayList<String>();
+    for (Map<String, Object> notification : App.getDB().readDueNotifications(new Date(), 500)) {
+      if (subscriptionId.equals(notification.get("subscriptionId")))
+        due.add((String) notification.get("id"));
+    }
+    return due;
+  }
+
+  @Test
+  public void testReadDueNotificationsOldestPerSubscription() {
+    writeSubscription(SUBSCRIPTION_ID);
+    writeSubscription(OTHER_SUBSCRIPTION_ID);
+
+    List<Map.Entry<Table, Map<String, Object>>> rows = new ArrayList<Map.Entry<Table, Map<String, Object>>>();
+    rows.add(NotificationDispatcher.newNotification(SUBSCRIPTION_ID, "outbox-response"));
+    rows.add(NotificationDispatcher.newNotification(SUBSCRIPTION_ID, "outbox-response"));
+    rows.add(NotificationDispatcher.newNotification(OTHER_SUBSCRIPTION_ID, "outbox-response"));
+    Assert.assertTrue(App.getDB().writeAll(rows));
+    String first = (String) rows.get(0).getValue().get("id");
+    String second = (String) rows.get(1).getValue().get("id");
+
+    // Only the oldest notification of a subscription is due
+    Assert.assertEquals(Collections.singletonList(first), readDue(SUBSCRIPTION_ID));
+    Assert.assertEquals(1, readDue(OTHER_SUBSCRIPTION_ID).size());
+
+    // A notification backing off holds up its own subscription only
+    App.getDB().update(Table.OUTBOX, Collections.singletonMap("id", first), Collections.singletonMap("nextAttempt",
+        new Timestamp(System.currentTimeMillis() + 60000).toString()));
+    Assert.assertTrue(readDue(SUBSCRIPTION_ID).isEmpty());
+    Assert.assertEquals(1, readDue(OTHER_SUBSCRIPTION_ID).size());
+
+    App.getDB().delete(Table.OUTBOX, first);
+    Assert.assertEquals(Collections.singletonList(second), readDue(SUBSCRIPTION_ID));
+  }
+
+  @Test
+  public void testFailedDeliveryIsRetriedThenDead() throws Exception {
+    writeSubscription(SUBSCRIPTION_ID);
+    Subscription subscription = new Subscription();
+    subscription.setId(SUBSCRIPTION_ID);
+    subscription.setCriteria("identifier=outbox-pended&patient.identifier=pat013");
+    subscription.getChannel().setType(SubscriptionChannelType.RESTHOOK).setEndpoint(
+        "http://localhost:" + server.getAddress().getPort() + "/error");
+    SubscriptionRegistry.add(subscription, SubscriptionCriteria.parse(subscription.getCriteria()));
+
+    List<Map.Entry<Table, Map<String, Object>>> rows = new ArrayList<Map.Entry<Table, Map<String, Object>>>();
+    rows.add(NotificationDispatcher.newNotification(SUBSCRIPTION_ID, "outbox-response"));
+    rows.add(NotificationDispatcher.newNotification(SUBSCRIPTION_ID, "outbox-response"));
+    Assert.assertTrue(App.getDB().writeAll(rows));
+    Map<String, Object> first = Collections.singletonMap("id", rows.get(0).getValue().get("id"));
+    Map<String, Object> second = Collections.singletonMap("id", rows.get(1).getValue().get("id"));
+
+    // Polling again while the first delivery is in flight does not send another
+    long polled = System.currentTimeMillis();
+    NotificationDispatcher.poll();
+    NotificationDispatcher.poll();
+    waitFor(() -> !"0".equals(App.getDB().readString(Table.OUTBOX, first, "attempts")));
+    Assert.assertEquals(1, maxConcurrent.get());
+    Assert.assertEquals(NotificationDispatcher.PENDING, App.getDB().readString(Table.OUTBOX, first, "status"));
+    Assert.assertTrue(
+        Timestamp.valueOf(App.getDB().readString(Table.OUTBOX, first, "nextAttempt")).getTime() > polled);
+    // The second notification waits for the first
+    Assert.assertEquals("0", App.getDB().readString(Table.OUTBOX, second, "attempts"));
+
+    // The last attempt fails as well
+    waitFor(() -> active.get() == 0);
+    Map<String, Object> lastAttempt = new HashMap<String, Object>();
+    lastAttempt.put("attempts", NotificationDispatcher.MAX_ATTEMPTS - 1);
+    lastAttempt.put("nextAttempt", new Timestamp(System.currentTimeMillis() - 1000).toString());
+    App.getDB().update(Table.OUTBOX, first, lastAttempt);
+    NotificationDispatcher.poll();
+    waitFor(() -> NotificationDispatcher.DEAD.equals(App.getDB().readString(Table.OUTBOX, first, "status")));
+    Assert.assertEquals(Integer.toString(NotificationDispatcher.MAX_ATTEMPTS),
+        App.getDB().readString(Table.OUTBOX, first, "attempts"));
+    Assert.assertEquals("error", App.getDB().readString(Table.SUBSCRIPTION,
+        Collections.singletonMap("id", SUBSCRIPTION_ID), "status"));
+    Assert.assertEquals(1, maxConcurrent.get());
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!condition.getAsBoolean()) {
+      Assert.assertTrue("Timed out", System.currentTimeMillis() < deadline);
+      Thread.sleep(20);
+    }
+  }
+}
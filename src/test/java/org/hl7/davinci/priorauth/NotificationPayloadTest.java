@@ -0,0 +1,84 @@
+package org.hl7.davinci.priorauth;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hl7.davinci.priorauth.Database.Table;
+import org.hl7.davinci.priorauth.Endpoint.RequestType;
+import org.hl7.fhir.r4.model.ClaimResponse;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.Subscription;
+import org.hl7.fhir.r4.model.Subscription.SubscriptionChannelType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class NotificationPayloadTest {
+
+  private static final String CLAIM_RESPONSE_ID = "payload-response";
+
+  @BeforeClass
+  public static void setupClass() {
+    App.initializeAppDB();
+  }
+
+  @After
+  public void cleanup() {
+    App.getDB().delete(Table.CLAIM_RESPONSE, CLAIM_RESPONSE_ID);
+  }
+
+  private static Subscription subscription(String payload, String content) {
+    Subscription subscription = new Subscription();
+    subscription.getChannel().setType(SubscriptionChannelType.RESTHOOK).setPayload(payload);
+    if (content != null)
+      subscription.getChannel().getPayloadElement().addExtension(NotificationPayload.CONTENT_EXTENSION_URL,
+          new CodeType(content));
+    return subscription;
+  }
+
+  @Test
+  public void testGetContent() {
+    Assert.assertEquals(NotificationPayload.Content.EMPTY, NotificationPayload.getContent(subscription(null, null)));
+    Assert.assertEquals(NotificationPayload.Content.FULL_RESOURCE,
+        NotificationPayload.getContent(subscription("application/fhir+json", null)));
+    Assert.assertEquals(NotificationPayload.Content.ID_ONLY,
+        NotificationPayload.getContent(subscription("application/fhir+xml", "id-only")));
+    Assert.assertEquals(NotificationPayload.Content.EMPTY,
+        NotificationPayload.getContent(subscription("application/fhir+json", "empty")));
+
+    Assert.assertNull(NotificationPayload.getContent(subscription("text/plain", null)));
+    Assert.assertNull(NotificationPayload.getContent(subscription("application/fhir+json", "everything")));
+  }
+
+  @Test
+  public void testGetRequestType() {
+    Assert.assertEquals(RequestType.JSON, NotificationPayload.getRequestType("application/fhir+json; charset=utf-8"));
+    Assert.assertEquals(RequestType.XML, NotificationPayload.getRequestType("application/fhir+xml"));
+    Assert.assertNull(NotificationPayload.getRequestType("text/html"));
+    Assert.assertNull(NotificationPayload.getRequestType(null));
+  }
+
+  @Test
+  public void testResourceEncodedOnce() {
+    ClaimResponse response = new ClaimResponse();
+    response.setId(CLAIM_RESPONSE_ID);
+    Map<String, Object> responseMap = new HashMap<String, Object>();
+    responseMap.put("id", CLAIM_RESPONSE_ID);
+    responseMap.put("patient", "pat013");
+    responseMap.put("status", "active");
+    responseMap.put("resource", response);
+    Assert.assertTrue(App.getDB().write(Table.CLAIM_RESPONSE, responseMap));
+
+    byte[] json = NotificationPayload.getResource(CLAIM_RESPONSE_ID, "application/fhir+json");
+    Assert.assertNotNull(json);
+    Assert.assertTrue(new String(json).contains("\"resourceType\":\"ClaimResponse\""));
+    // Every subscriber shares the same bytes
+    Assert.assertSame(json, NotificationPayload.getResource(CLAIM_RESPONSE_ID, "application/fhir+json"));
+
+    byte[] xml = NotificationPayload.getResource(CLAIM_RESPONSE_ID, "application/fhir+xml");
+    Assert.assertTrue(new String(xml).startsWith("<ClaimResponse"));
+
+    Assert.assertNull(NotificationPayload.getResource("payload-missing", "application/fhir+json"));
+  }
+}
@@ -0,0 +1,59 @@
+package org.hl7.davinci.priorauth;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RestHookClientTest {
+
+  private static HttpServer server;
+  private static final AtomicInteger notifications = new AtomicInteger();
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/ok", exchange -> {
+      notifications.incrementAndGet();
+      exchange.sendResponseHeaders(200, -1);
+      exchange.close();
+    });
+    server.createContext("/error", exchange -> {
+      exchange.sendResponseHeaders(500, -1);
+      exchange.close();
+    });
+    server.start();
+  }
+
+  @AfterClass
+  public static void cleanup() {
+    server.stop(0);
+  }
+
+  private static String url(String path) {
+    return "http://localhost:" + server.getAddress().getPort() + path;
+  }
+
+  @Test
+  public void testNotify() throws Exception {
+    Assert.assertTrue(RestHookClient.notify(url("/ok")).get(10, TimeUnit.SECONDS));
+    Assert.assertTrue(RestHookClient.notify(url("/ok")).get(10, TimeUnit.SECONDS));
+    Assert.assertEquals(2, notifications.get());
+
+    // Both notifications used the shared client
+    Assert.assertSame(RestHookClient.getClient(), RestHookClient.getClient());
+  }
+
+  @Test
+  public void testNotifyFailure() throws Exception {
+    Assert.assertFalse(RestHookClient.notify(url("/error")).get(10, TimeUnit.SECONDS));
+    Assert.assertFalse(RestHookClient.notify("not a url").get(10, TimeUnit.SECONDS));
+  }
+}
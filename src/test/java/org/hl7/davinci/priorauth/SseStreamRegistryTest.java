@@ -0,0 +1,74 @@
+package org.hl7.davinci.priorauth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+public class SseStreamRegistryTest {
+
+  /**
+   * An emitter which records the stream it would write.
+   */
+  static class RecordingEmitter extends SseEmitter {
+    private final StringBuilder stream = new StringBuilder();
+
+    @Override
+    public synchronized void send(SseEventBuilder builder) {
+      for (DataWithMediaType data : builder.build()) {
+        Object value = data.getData();
+        stream.append(value instanceof byte[] ? new String((byte[]) value, StandardCharsets.UTF_8) : value);
+      }
+    }
+
+    synchronized String getStream() {
+      return stream.toString();
+    }
+  }
+
+  @Test
+  public void testOpenAndNotify() throws Exception {
+    int streams = SseStreamRegistry.size();
+    Assert.assertFalse(SseStreamRegistry.isBound("sse-1"));
+
+    RecordingEmitter emitter = new RecordingEmitter();
+    SseStreamRegistry.open(Arrays.asList("sse-1", "sse-2"), emitter);
+    Assert.assertEquals(streams + 1, SseStreamRegistry.size());
+    Assert.assertTrue(SseStreamRegistry.isBound("sse-1"));
+    Assert.assertTrue(SseStreamRegistry.isBound("sse-2"));
+    Assert.assertEquals("event:notification\ndata:bound: sse-1\n\nevent:notification\ndata:bound: sse-2\n\n",
+        emitter.getStream());
+
+    Assert.assertTrue(SseStreamRegistry.notify("sse-1", "ping: sse-1", null, null).get());
+    Assert.assertTrue(emitter.getStream().endsWith("event:notification\ndata:ping: sse-1\n\n"));
+
+    // Nothing is bound to sse-3
+    Assert.assertFalse(SseStreamRegistry.notify("sse-3", "ping: sse-3", null, null).get());
+  }
+
+  @Test
+  public void testNotifyWithResource() throws Exception {
+    RecordingEmitter emitter = new RecordingEmitter();
+    SseStreamRegistry.open(Arrays.asList("sse-4"), emitter);
+
+    // A single line resource is sent as one data line
+    byte[] json = "{\"resourceType\":\"Bundle\"}".getBytes(StandardCharsets.UTF_8);
+    Assert.assertTrue(SseStreamRegistry.notify("sse-4", "ping: sse-4", json, "application/fhir+json").get());
+    Assert.assertTrue(emitter.getStream()
+        .endsWith("event:notification\ndata:ping: sse-4\ndata:{\"resourceType\":\"Bundle\"}\n\n"));
+
+    // Every line of a multi-line resource is its own data line
+    byte[] xml = "<Bundle>\r\n  <id value=\"1\"/>\n</Bundle>".getBytes(StandardCharsets.UTF_8);
+    Assert.assertTrue(SseStreamRegistry.notify("sse-4", "ping: sse-4", xml, "application/fhir+xml").get());
+    String frame = emitter.getStream().substring(emitter.getStream().lastIndexOf("event:"));
+    Assert.assertEquals(
+        "event:notification\ndata:ping: sse-4\ndata:<Bundle>\ndata:  <id value=\"1\"/>\ndata:</Bundle>\n\n", frame);
+    for (String line : frame.split("\n")) {
+      if (!line.isEmpty())
+        Assert.assertTrue(line, line.startsWith("event:") || line.startsWith("data:"));
+    }
+  }
+}
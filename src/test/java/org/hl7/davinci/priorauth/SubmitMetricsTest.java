@@ -0,0 +1,53 @@
+package org.hl7.davinci.priorauth;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.davinci.priorauth.SubmitMetrics.Stage;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SubmitMetricsTest {
+
+  @Test
+  public void testHistogramBuckets() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(TimeUnit.MICROSECONDS.toNanos(500), true);
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(7), true);
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(60000), false);
+
+    Assert.assertEquals(3, histogram.getCount());
+    Assert.assertEquals(1, histogram.getErrors());
+    long[] counts = histogram.getBucketCounts();
+    Assert.assertEquals(1, counts[0]); // <= 1ms
+    Assert.assertEquals(1, counts[3]); // <= 10ms
+    Assert.assertEquals(1, counts[counts.length - 1]); // overflow
+
+    JSONArray buckets = (JSONArray) histogram.toJson().get("buckets");
+    JSONObject last = (JSONObject) buckets.get(buckets.size() - 1);
+    Assert.assertEquals("+Inf", last.get("le"));
+    Assert.assertEquals(3L, last.get("count"));
+  }
+
+  @Test
+  public void testTimeRecordsFailures() {
+    LatencyHistogram histogram = SubmitMetrics.getHistogram(Stage.AGGREGATE);
+    long count = histogram.getCount();
+    long errors = histogram.getErrors();
+
+    Assert.assertTrue(SubmitMetrics.time(Stage.AGGREGATE, () -> true));
+    Assert.assertFalse(SubmitMetrics.time(Stage.AGGREGATE, () -> false));
+    try {
+      SubmitMetrics.time(Stage.AGGREGATE, () -> {
+        throw new IllegalStateException();
+      });
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    Assert.assertEquals(count + 3, histogram.getCount());
+    Assert.assertEquals(errors + 2, histogram.getErrors());
+  }
+}
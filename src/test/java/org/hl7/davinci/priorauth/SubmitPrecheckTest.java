@@ -0,0 +1,101 @@
+package org.hl7.davinci.priorauth;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.hl7.davinci.priorauth.Endpoint.RequestType;
+import org.hl7.davinci.priorauth.SubmitPrecheck.Result;
+import org.hl7.fhir.r4.model.Bundle;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class SubmitPrecheckTest {
+
+  @Test
+  public void testJson() throws IOException {
+    Assert.assertEquals(Result.OK, SubmitPrecheck.check(readResource("bundle-prior-auth.json"), RequestType.JSON));
+    Assert.assertEquals(Result.OK, SubmitPrecheck.check(readResource("bundle-with-only-claim.json"), RequestType.JSON));
+    Assert.assertEquals(Result.NOT_BUNDLE, SubmitPrecheck.check(readResource("claim-only.json"), RequestType.JSON));
+    Assert.assertEquals(Result.NOT_CLAIM, SubmitPrecheck.check(readResource("bundle-response.json"), RequestType.JSON));
+  }
+
+  @Test
+  public void testJsonKeyOrder() {
+    String body = "{\"type\":\"collection\",\"entry\":[{\"fullUrl\":\"urn:uuid:1\",\"resource\":{\"id\":\"1\",\"meta\":{},"
+        + "\"resourceType\":\"Claim\"}},{\"resource\":{\"resourceType\":\"Patient\"}}],\"resourceType\":\"Bundle\"}";
+    Assert.assertEquals(Result.OK, SubmitPrecheck.check(body, RequestType.JSON));
+    Assert.assertEquals(Result.NOT_CLAIM,
+        SubmitPrecheck.check("{\"entry\":[],\"resourceType\":\"Bundle\"}", RequestType.JSON));
+    Assert.assertEquals(Result.NOT_CLAIM, SubmitPrecheck.check("{\"resourceType\":\"Bundle\"}", RequestType.JSON));
+
+    // The first entry without a resource or with the resourceType in the middle
+    Assert.assertEquals(Result.NOT_CLAIM, SubmitPrecheck.check(
+        "{\"entry\":[{\"fullUrl\":\"urn:uuid:1\"},{\"resource\":{\"resourceType\":\"Claim\"}}],"
+            + "\"resourceType\":\"Bundle\"}",
+        RequestType.JSON));
+    Assert.assertEquals(Result.OK, SubmitPrecheck.check(
+        "{\"entry\":[{\"resource\":{\"id\":\"1\",\"resourceType\":\"Claim\",\"item\":[{\"sequence\":1}]},"
+            + "\"fullUrl\":\"urn:uuid:1\"}],\"id\":\"b\",\"resourceType\":\"Bundle\"}",
+        RequestType.JSON));
+    Assert.assertEquals(Result.NOT_BUNDLE, SubmitPrecheck.check(
+        "{\"entry\":[{\"resource\":{\"resourceType\":\"Claim\"}}],\"resourceType\":\"Claim\"}", RequestType.JSON));
+    Assert.assertEquals(Result.MALFORMED,
+        SubmitPrecheck.check("{\"entry\":[{\"resource\":{\"resourceType\":\"Claim\"", RequestType.JSON));
+  }
+
+  @Test
+  public void testJsonMalformed() {
+    Assert.assertEquals(Result.MALFORMED, SubmitPrecheck.check("{\"resourceType\":", RequestType.JSON));
+    Assert.assertEquals(Result.MALFORMED, SubmitPrecheck.check("", RequestType.JSON));
+    Assert.assertEquals(Result.NOT_BUNDLE, SubmitPrecheck.check("[1, 2, 3]", RequestType.JSON));
+  }
+
+  @Test
+  public void testXml() throws IOException {
+    Bundle bundle = (Bundle) App.getFhirContext().newJsonParser().parseResource(readResource("bundle-prior-auth.json"));
+    String xml = App.getFhirContext().newXmlParser().encodeResourceToString(bundle);
+    Assert.assertEquals(Result.OK, SubmitPrecheck.check(xml, RequestType.XML));
+
+    Bundle response = (Bundle) App.getFhirContext().newJsonParser().parseResource(readResource("bundle-response.json"));
+    xml = App.getFhirContext().newXmlParser().encodeResourceToString(response);
+    Assert.assertEquals(Result.NOT_CLAIM, SubmitPrecheck.check(xml, RequestType.XML));
+
+    Assert.assertEquals(Result.NOT_BUNDLE,
+        SubmitPrecheck.check("<Claim xmlns=\"http://hl7.org/fhir\"></Claim>", RequestType.XML));
+    Assert.assertEquals(Result.MALFORMED,
+        SubmitPrecheck.check("<Bundle xmlns=\"http://hl7.org/fhir\"><entry>", RequestType.XML));
+  }
+
+  @Test
+  public void testReadBody() throws IOException {
+    byte[] body = "{\"name\":\"Zoë\"}".getBytes(StandardCharsets.UTF_8);
+    Assert.assertEquals("{\"name\":\"Zoë\"}", SubmitPrecheck.readBody(request(body, true), 15));
+
+    // 15 bytes but 14 chars, rejected on the Content-Length
+    Assert.assertNull(SubmitPrecheck.readBody(request(body, true), 14));
+
+    // Without a Content-Length no more than the limit is read
+    Assert.assertNull(SubmitPrecheck.readBody(request(new byte[20000], false), 10000));
+    Assert.assertEquals(20000, SubmitPrecheck.readBody(request(new byte[20000], false), 20000).length());
+  }
+
+  private static MockHttpServletRequest request(byte[] body, boolean contentLength) {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", "/Claim/$submit") {
+      @Override
+      public long getContentLengthLong() {
+        return contentLength ? super.getContentLengthLong() : -1;
+      }
+    };
+    request.setContent(body);
+    return request;
+  }
+
+  private String readResource(String name) throws IOException {
+    Path path = Paths.get("src/test/resources/", name);
+    return new String(Files.readAllBytes(path));
+  }
+}
@@ -0,0 +1,51 @@
+package org.hl7.davinci.priorauth;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SubscriptionCriteriaTest {
+
+  @Test
+  public void testParseAnyOrder() {
+    SubscriptionCriteria criteria = SubscriptionCriteria
+        .parse("status=active&patient.identifier=pat013&identifier=pended");
+    Assert.assertNotNull(criteria);
+    Assert.assertEquals("pended", criteria.getClaimResponseId());
+    Assert.assertEquals("pat013", criteria.getPatient());
+    Assert.assertEquals("active", criteria.getStatus());
+    Assert.assertNull(criteria.getEnd());
+  }
+
+  @Test
+  public void testParseEndAndEncoding() {
+    SubscriptionCriteria criteria = SubscriptionCriteria
+        .parse("ClaimResponse?identifier=pended&patient.identifier=pat%20013&end=2020-01-01T00%3A00%3A00Z");
+    Assert.assertNotNull(criteria);
+    Assert.assertEquals("pat 013", criteria.getPatient());
+    // The end is not mistaken for the status
+    Assert.assertNull(criteria.getStatus());
+    Assert.assertEquals("2020-01-01T00:00:00Z", criteria.getEnd());
+    Assert.assertEquals(1577836800000L, criteria.getEndDate().getTime());
+  }
+
+  @Test
+  public void testParseInvalid() {
+    Assert.assertNull(SubscriptionCriteria.parse(null));
+    Assert.assertNull(SubscriptionCriteria.parse("identifier=pended"));
+    Assert.assertNull(SubscriptionCriteria.parse("identifier=pended&patient.identifier"));
+    Assert.assertNull(SubscriptionCriteria.parse("identifier=pended&patient.identifier=pat013&unknown=1"));
+    Assert.assertNull(SubscriptionCriteria.parse("identifier=pended&patient.identifier=pat013&end=tomorrow"));
+  }
+
+  @Test
+  public void testMatches() {
+    SubscriptionCriteria criteria = SubscriptionCriteria.parse("identifier=pended&patient.identifier=pat013");
+    Assert.assertTrue(criteria.matches("pended", "pat013", "active"));
+    Assert.assertTrue(criteria.matches("pended", "pat013", "cancelled"));
+    Assert.assertFalse(criteria.matches("pended", "pat014", "active"));
+
+    criteria = SubscriptionCriteria.parse("identifier=pended&patient.identifier=pat013&status=active");
+    Assert.assertTrue(criteria.matches("pended", "pat013", "active"));
+    Assert.assertFalse(criteria.matches("pended", "pat013", "cancelled"));
+  }
+}
@@ -0,0 +1,118 @@
+package org.hl7.davinci.priorauth;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.davinci.priorauth.Database.Table;
+import org.hl7.fhir.r4.model.Subscription;
+import org.hl7.fhir.r4.model.Subscription.SubscriptionChannelType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SubscriptionRegistryTest {
+
+  @BeforeClass
+  public static void setupClass() {
+    App.initializeAppDB();
+  }
+
+  @After
+  public void cleanup() {
+    SubscriptionRegistry.remove("registry-resthook");
+    SubscriptionRegistry.remove("registry-websocket");
+    App.getDB().delete(Table.SUBSCRIPTION, "registry-backfill");
+    App.getDB().delete(Table.SUBSCRIPTION, "registry-backfill-criteria");
+  }
+
+  private static Subscription subscription(String id, SubscriptionChannelType type) {
+    Subscription subscription = new Subscription();
+    subscription.setId(id);
+    subscription.setCriteria("identifier=registry-pended&patient.identifier=pat013&status=active");
+    subscription.getChannel().setType(type).setEndpoint("http://localhost:9090/fhir/SubscriptionNotification");
+    return subscription;
+  }
+
+  private static void add(Subscription subscription) {
+    SubscriptionRegistry.add(subscription, SubscriptionCriteria.parse(subscription.getCriteria()));
+  }
+
+  @Test
+  public void testSubscriptionIdsByClaimResponse() {
+    add(subscription("registry-resthook", SubscriptionChannelType.RESTHOOK));
+    add(subscription("registry-websocket", SubscriptionChannelType.WEBSOCKET));
+
+    Assert.assertEquals(2, SubscriptionRegistry.getSubscriptionIds("registry-pended", "pat013", "active").size());
+    Assert.assertTrue(SubscriptionRegistry.getSubscriptionIds("registry-pended", "pat013", "cancelled").isEmpty());
+    Assert.assertTrue(SubscriptionRegistry.getSubscriptionIds("registry-pended", "pat014", "active").isEmpty());
+    Assert.assertTrue(SubscriptionRegistry.getSubscriptionIds("registry-granted", "pat013", "active").isEmpty());
+
+    SubscriptionRegistry.Entry entry = SubscriptionRegistry.get("registry-resthook");
+    Assert.assertEquals(SubscriptionChannelType.RESTHOOK, entry.getChannelType());
+    Assert.assertEquals("http://localhost:9090/fhir/SubscriptionNotification", entry.getEndpoint());
+
+    // Only deleted for the right patient
+    SubscriptionRegistry.remove("registry-resthook", "pat014");
+    Assert.assertNotNull(SubscriptionRegistry.get("registry-resthook"));
+    SubscriptionRegistry.remove("registry-resthook", "pat013");
+    Assert.assertNull(SubscriptionRegistry.get("registry-resthook"));
+    Assert.assertEquals(Collections.singletonList("registry-websocket"),
+        SubscriptionRegistry.getSubscriptionIds("registry-pended", "pat013", "active"));
+  }
+
+  @Test
+  public void testBind() {
+    add(subscription("registry-websocket", SubscriptionChannelType.WEBSOCKET));
+    Assert.assertNull(SubscriptionRegistry.get("registry-websocket").getWebsocketId());
+
+    SubscriptionRegistry.bind("registry-websocket", "user-1");
+    Assert.assertEquals("user-1", SubscriptionRegistry.get("registry-websocket").getWebsocketId());
+    Assert.assertTrue(SubscriptionRegistry.getWebsocketSubscriptionIds("user-1").contains("registry-websocket"));
+
+    // Binding again moves the subscription to the new web-socket
+    SubscriptionRegistry.bind("registry-websocket", "user-2");
+    Assert.assertTrue(SubscriptionRegistry.getWebsocketSubscriptionIds("user-1").isEmpty());
+    Assert.assertTrue(SubscriptionRegistry.getWebsocketSubscriptionIds("user-2").contains("registry-websocket"));
+
+    SubscriptionRegistry.remove("registry-websocket");
+    Assert.assertTrue(SubscriptionRegistry.getWebsocketSubscriptionIds("user-2").isEmpty());
+  }
+
+  @Test
+  public void testLoadBackfillsEndTime() {
+    // Rows written before the endTime column only have the end in the resource
+    Subscription subscription = subscription("registry-backfill", SubscriptionChannelType.RESTHOOK);
+    subscription.setEnd(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)));
+    writeSubscription(subscription);
+    Subscription criteriaEnd = subscription("registry-backfill-criteria", SubscriptionChannelType.RESTHOOK);
+    criteriaEnd.setCriteria(criteriaEnd.getCriteria() + "&end=2020-01-01T00:00:00Z");
+    writeSubscription(criteriaEnd);
+
+    SubscriptionRegistry.load();
+    Assert.assertNotNull(
+        App.getDB().readString(Table.SUBSCRIPTION, Collections.singletonMap("id", "registry-backfill"), "endTime"));
+    Assert.assertNotNull(App.getDB().readString(Table.SUBSCRIPTION,
+        Collections.singletonMap("id", "registry-backfill-criteria"), "endTime"));
+
+    // The expired one is swept
+    SubscriptionSweeper.sweep(new Date());
+    Assert.assertNull(App.getDB().readString(Table.SUBSCRIPTION,
+        Collections.singletonMap("id", "registry-backfill-criteria"), "id"));
+    Assert.assertNotNull(
+        App.getDB().readString(Table.SUBSCRIPTION, Collections.singletonMap("id", "registry-backfill"), "id"));
+  }
+
+  private static void writeSubscription(Subscription subscription) {
+    Map<String, Object> subscriptionMap = new HashMap<String, Object>();
+    subscriptionMap.put("id", subscription.getIdElement().getIdPart());
+    subscriptionMap.put("claimResponseId", "registry-pended");
+    subscriptionMap.put("patient", "pat013");
+    subscriptionMap.put("status", "active");
+    subscriptionMap.put("resource", subscription);
+    Assert.assertTrue(App.getDB().write(Table.SUBSCRIPTION, subscriptionMap));
+  }
+}
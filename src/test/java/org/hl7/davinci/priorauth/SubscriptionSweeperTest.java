@@ -0,0 +1,55 @@
+package org.hl7.davinci.priorauth;
+
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.davinci.priorauth.Database.Table;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SubscriptionSweeperTest {
+
+  @BeforeClass
+  public static void setupClass() {
+    App.initializeAppDB();
+  }
+
+  @After
+  public void cleanup() {
+    App.getDB().delete(Table.SUBSCRIPTION, "sweeper-expired");
+    App.getDB().delete(Table.SUBSCRIPTION, "sweeper-active");
+    App.getDB().delete(Table.SUBSCRIPTION, "sweeper-no-end");
+  }
+
+  private static void writeSubscription(String id, Date end) {
+    Map<String, Object> subscriptionMap = new HashMap<String, Object>();
+    subscriptionMap.put("id", id);
+    subscriptionMap.put("patient", "pat013");
+    subscriptionMap.put("status", "active");
+    if (end != null)
+      subscriptionMap.put("endTime", new Timestamp(end.getTime()).toString());
+    Assert.assertTrue(App.getDB().write(Table.SUBSCRIPTION, subscriptionMap));
+  }
+
+  @Test
+  public void testSweep() {
+    long now = System.currentTimeMillis();
+    writeSubscription("sweeper-expired", new Date(now - TimeUnit.HOURS.toMillis(1)));
+    writeSubscription("sweeper-active", new Date(now + TimeUnit.HOURS.toMillis(1)));
+    writeSubscription("sweeper-no-end", null);
+
+    Assert.assertTrue(SubscriptionSweeper.sweep(new Date(now)) >= 1);
+    Assert.assertNull(
+        App.getDB().readString(Table.SUBSCRIPTION, Collections.singletonMap("id", "sweeper-expired"), "id"));
+    Assert.assertNotNull(
+        App.getDB().readString(Table.SUBSCRIPTION, Collections.singletonMap("id", "sweeper-active"), "id"));
+    Assert.assertNotNull(
+        App.getDB().readString(Table.SUBSCRIPTION, Collections.singletonMap("id", "sweeper-no-end"), "id"));
+  }
+}
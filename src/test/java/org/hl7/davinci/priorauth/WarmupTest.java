@@ -0,0 +1,22 @@
+package org.hl7.davinci.priorauth;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class WarmupTest {
+
+  @BeforeClass
+  public static void setup() {
+    App.initializeAppDB();
+  }
+
+  @Test
+  public void testRun() {
+    Assert.assertTrue(Warmup.run());
+
+    // The resource definitions used by the service are already scanned
+    Assert.assertNotNull(App.getFhirContext().getResourceDefinition(Bundle.class));
+  }
+}
@@ -0,0 +1,56 @@
+package org.hl7.davinci.priorauth;
+
+import org.hl7.fhir.r4.model.Subscription;
+import org.hl7.fhir.r4.model.Subscription.SubscriptionChannelType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class WebSocketSessionRegistryTest {
+
+  @BeforeClass
+  public static void setupClass() {
+    App.initializeAppDB();
+  }
+
+  @Before
+  public void setup() {
+    Subscription subscription = new Subscription();
+    subscription.setId("session-websocket");
+    subscription.setCriteria("identifier=session-pended&patient.identifier=pat013");
+    subscription.getChannel().setType(SubscriptionChannelType.WEBSOCKET);
+    SubscriptionRegistry.add(subscription, SubscriptionCriteria.parse(subscription.getCriteria()));
+  }
+
+  @After
+  public void cleanup() {
+    SubscriptionRegistry.remove("session-websocket");
+    WebSocketSessionRegistry.disconnected("session-user", "session-1");
+  }
+
+  @Test
+  public void testDisconnectUnbinds() {
+    WebSocketSessionRegistry.connected("session-user", "session-1");
+    SubscriptionRegistry.bind("session-websocket", "session-user");
+    Assert.assertTrue(WebSocketSessionRegistry.isConnected("session-user"));
+
+    // A disconnect for another session of the user is ignored
+    WebSocketSessionRegistry.disconnected("session-user", "session-2");
+    Assert.assertTrue(WebSocketSessionRegistry.isConnected("session-user"));
+    Assert.assertEquals("session-user", SubscriptionRegistry.get("session-websocket").getWebsocketId());
+
+    WebSocketSessionRegistry.disconnected("session-user", "session-1");
+    Assert.assertFalse(WebSocketSessionRegistry.isConnected("session-user"));
+    Assert.assertNull(SubscriptionRegistry.get("session-websocket").getWebsocketId());
+  }
+
+  @Test
+  public void testPruneStaleBindings() {
+    SubscriptionRegistry.bind("session-websocket", "session-gone");
+    Assert.assertTrue(WebSocketSessionRegistry.pruneStaleBindings() >= 1);
+    Assert.assertNull(SubscriptionRegistry.get("session-websocket").getWebsocketId());
+    Assert.assertFalse(SubscriptionRegistry.getWebsocketIds().contains("session-gone"));
+  }
+}